@@ -0,0 +1,113 @@
+package hotelapp;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/** Async facade for HotelDB that runs lookups on a bounded pool of database threads */
+public class AsyncHotelDB {
+    private final HotelDB hotelDB;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    /**
+     * Constructor for AsyncHotelDB
+     * @param hotelDB database handler
+     * @param threads number of database threads
+     * @param queueSize max lookups waiting for a thread, the caller runs the lookup once full
+     * @param timeoutMillis default timeout for a single lookup
+     */
+    public AsyncHotelDB(HotelDB hotelDB, int threads, int queueSize, long timeoutMillis) {
+        this.hotelDB = hotelDB;
+        this.timeoutMillis = timeoutMillis;
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "hoteldb-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs a lookup on the database threads using the default timeout
+     * @param lookup database lookup
+     * @return future holding the lookup result
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> lookup) {
+        return supply(lookup, timeoutMillis);
+    }
+
+    /**
+     * Runs a lookup on the database threads, the lookup is interrupted if the
+     * returned future times out or gets cancelled
+     * @param lookup database lookup
+     * @param timeoutMillis timeout for this lookup
+     * @return future holding the lookup result
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> lookup, long timeoutMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            try {
+                result.complete(lookup.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, e) -> {
+            if (e != null) running.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Waits for a lookup to finish
+     * @param future future returned by this facade
+     * @param fallback value to use if the lookup failed, timed out or was cancelled
+     * @return lookup result or fallback
+     */
+    public static <T> T join(CompletableFuture<T> future, T fallback) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            System.out.println("Database lookup did not complete: " + e);
+            return fallback;
+        }
+    }
+
+    /** Shuts down the database threads */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public CompletableFuture<List<String>> findHotelNames(String name) {
+        return supply(() -> hotelDB.findHotelNames(name));
+    }
+
+    public CompletableFuture<String> getLastLogin(String username) {
+        return supply(() -> hotelDB.getLastLogin(username));
+    }
+
+    public CompletableFuture<Hotel> getHotelById(String hotelid) {
+        return supply(() -> hotelDB.getHotelById(hotelid));
+    }
+
+    public CompletableFuture<HotelPage> getHotelPage(String name, String username, int page, int limit,
+                                                     boolean withText, boolean withFavorite) {
+        return supply(() -> hotelDB.getHotelPage(name, username, page, limit, withText, withFavorite));
+    }
+
+    public CompletableFuture<Review> getUserReview(String hotelid, String username) {
+        return supply(() -> hotelDB.getUserReview(hotelid, username));
+    }
+}
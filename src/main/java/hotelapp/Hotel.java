@@ -9,7 +9,6 @@ public class Hotel {
     private final String state;
     private final String latitude;
     private final String longitude;
-    private boolean favorite = false;
 
     /**
      * Constructor for Hotel class
@@ -60,14 +59,6 @@ public class Hotel {
         return longitude;
     }
 
-    public void setFavorite() {
-        favorite = true;
-    }
-
-    public boolean isFavorite() {
-        return favorite;
-    }
-
     /**
      * Generates the hotel's expedia url for redirection
      * @return expedia url
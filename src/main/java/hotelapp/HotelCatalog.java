@@ -0,0 +1,133 @@
+package hotelapp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable in memory copy of the hotel table. Hotels are kept in an array
+ * sorted by their int id and found by binary search, with a second index by
+ * name. Changes make a new catalog rather than modifying this one, so readers
+ * never need a lock.
+ */
+public class HotelCatalog {
+    private static final HotelCatalog EMPTY = new HotelCatalog(new int[0], new Hotel[0]);
+
+    private final int[] ids;          // sorted hotel ids
+    private final Hotel[] hotels;     // hotels[i] has id ids[i]
+    private final Map<String, Hotel> byName;
+
+    /**
+     * Constructor for HotelCatalog
+     * @param ids sorted hotel ids
+     * @param hotels hotels in the same order as ids
+     */
+    private HotelCatalog(int[] ids, Hotel[] hotels) {
+        this.ids = ids;
+        this.hotels = hotels;
+        this.byName = new HashMap<>(hotels.length * 2);
+        for (Hotel hotel : hotels) {
+            byName.put(hotel.getName(), hotel);
+        }
+    }
+
+    /**
+     * Returns a catalog with no hotels
+     * @return empty catalog
+     */
+    public static HotelCatalog empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a catalog from a collection of hotels, hotels with ids that are
+     * not ints are left out
+     * @param hotelList hotels
+     * @return catalog
+     */
+    public static HotelCatalog of(Collection<Hotel> hotelList) {
+        Hotel[] sorted = hotelList.stream()
+                .filter(hotel -> parseId(hotel.getHotelid()) != null)
+                .sorted((a, b) -> Integer.compare(parseId(a.getHotelid()), parseId(b.getHotelid())))
+                .toArray(Hotel[]::new);
+        int[] ids = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            ids[i] = parseId(sorted[i].getHotelid());
+        }
+        return new HotelCatalog(ids, sorted);
+    }
+
+    /**
+     * Returns a copy of this catalog with a hotel added or replaced
+     * @param hotel hotel to add
+     * @return new catalog, or this catalog if the hotel id is not an int
+     */
+    public HotelCatalog with(Hotel hotel) {
+        Integer id = parseId(hotel.getHotelid());
+        if (id == null) {
+            return this;
+        }
+
+        int i = Arrays.binarySearch(ids, id);
+        if (i >= 0) {
+            Hotel[] newHotels = hotels.clone();
+            newHotels[i] = hotel;
+            return new HotelCatalog(ids, newHotels);
+        }
+
+        int insert = -i - 1;
+        int[] newIds = new int[ids.length + 1];
+        Hotel[] newHotels = new Hotel[hotels.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, insert);
+        System.arraycopy(hotels, 0, newHotels, 0, insert);
+        newIds[insert] = id;
+        newHotels[insert] = hotel;
+        System.arraycopy(ids, insert, newIds, insert + 1, ids.length - insert);
+        System.arraycopy(hotels, insert, newHotels, insert + 1, hotels.length - insert);
+        return new HotelCatalog(newIds, newHotels);
+    }
+
+    /**
+     * Finds a hotel by id
+     * @param hotelid hotel id
+     * @return hotel, null if not in the catalog
+     */
+    public Hotel getById(String hotelid) {
+        Integer id = parseId(hotelid);
+        if (id == null) {
+            return null;
+        }
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? hotels[i] : null;
+    }
+
+    /**
+     * Finds a hotel by its exact name
+     * @param name hotel name
+     * @return hotel, null if not in the catalog
+     */
+    public Hotel getByName(String name) {
+        return name == null ? null : byName.get(name);
+    }
+
+    public int size() {
+        return hotels.length;
+    }
+
+    /**
+     * Parses a hotel id, also used by UserProfile for favorite ids
+     * @param hotelid hotel id, may be null
+     * @return id as an int, null if it is not one
+     */
+    static Integer parseId(String hotelid) {
+        if (hotelid == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(hotelid.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -3,15 +3,33 @@ package hotelapp;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /** MySQL database handler class for travel_users, travel_hotels, and travel_reviews tables */
 public class HotelDB {
     private final Properties config; // a map of properties
-    private final String uri; // uri to connect to mysql using jdbc
+    private final ReplicaRouter router; // picks the primary or a read replica for each call
+    private final ShardRing shards; // review shards by hotel id, null if reviews live with everything else
+    private final QueryMetrics metrics; // times every statement run through connect
+    private final WorkloadGate gate; // connection permits for interactive, ingest and maintenance work
+    private final AtomicReference<HotelCatalog> catalog; // in memory hotels, swapped whole on refresh
+    private final ReviewPageCache reviewCache; // review pages, counts and ratings by hotel
+    private final ExecutorService reviewWriters; // bulk review loads, one thread per review host
 
     /**
      * Constructor for HotelDB
@@ -19,7 +37,37 @@ public class HotelDB {
      */
     public HotelDB(String configPath) {
         this.config = loadConfig(configPath);
-        this.uri = "jdbc:mysql://" + config.getProperty("hostname") + "/" + config.getProperty("database") + "?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=UTC";
+        List<String> replicas = parseHosts(config.getProperty("replicas"));
+        long stickyMillis = Long.parseLong(config.getProperty("sticky_seconds", "10")) * 1000;
+        this.router = new ReplicaRouter(config.getProperty("hostname"), replicas,
+                Long.parseLong(config.getProperty("replica_eject_seconds", "30")) * 1000, stickyMillis);
+        List<String> shardHosts = parseHosts(config.getProperty("review_shards"));
+        this.shards = shardHosts.isEmpty() ? null : new ShardRing(shardHosts);
+        AtomicInteger writerCount = new AtomicInteger();
+        this.reviewWriters = Executors.newFixedThreadPool(getReviewHosts().size(), runnable -> {
+            Thread thread = new Thread(runnable, "review-writer-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics = new QueryMetrics(Long.parseLong(config.getProperty("slow_query_ms", "200")));
+
+        Map<WorkloadGate.Workload, Integer> limits = new EnumMap<>(WorkloadGate.Workload.class);
+        limits.put(WorkloadGate.Workload.INTERACTIVE, Integer.parseInt(config.getProperty("interactive_connections", "32")));
+        limits.put(WorkloadGate.Workload.INGEST, Integer.parseInt(config.getProperty("ingest_connections", "2")));
+        limits.put(WorkloadGate.Workload.MAINTENANCE, Integer.parseInt(config.getProperty("maintenance_connections", "1")));
+        limits.put(WorkloadGate.Workload.EXPORT, Integer.parseInt(config.getProperty("export_connections", "2")));
+        this.gate = new WorkloadGate(limits,
+                Long.parseLong(config.getProperty("interactive_wait_ms", "2000")),
+                Long.parseLong(config.getProperty("export_wait_ms", "2000")),
+                Double.parseDouble(config.getProperty("interactive_p95_budget_ms", "100")),
+                Long.parseLong(config.getProperty("ingest_max_delay_ms", "1000")));
+        this.catalog = new AtomicReference<>(HotelCatalog.empty());
+
+        // reviews read from a lagging replica must not be cached right after a write
+        boolean reviewsOnReplicas = shards == null && !replicas.isEmpty();
+        this.reviewCache = new ReviewPageCache(
+                Long.parseLong(config.getProperty("review_cache_mb", "32")) * 1024 * 1024,
+                reviewsOnReplicas ? stickyMillis : 0);
     }
 
     /**
@@ -37,6 +85,195 @@ public class HotelDB {
         return config;
     }
 
+    /**
+     * Parses a comma separated list of hosts
+     * @param hosts comma separated hosts, may be null
+     * @return list of hosts
+     */
+    private List<String> parseHosts(String hosts) {
+        List<String> hostList = new ArrayList<>();
+        if (hosts == null) {
+            return hostList;
+        }
+        for (String host : hosts.split(",")) {
+            if (!host.isBlank()) hostList.add(host.trim());
+        }
+        return hostList;
+    }
+
+    /**
+     * Returns the query metrics for this database handler
+     * @return query metrics
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the review page cache
+     * @return review page cache
+     */
+    public ReviewPageCache getReviewCache() {
+        return reviewCache;
+    }
+
+    /**
+     * Returns the connection permits shared by interactive, ingest and maintenance work
+     * @return workload gate
+     */
+    public WorkloadGate getGate() {
+        return gate;
+    }
+
+    /**
+     * Opens an instrumented connection to a given database host for interactive work
+     * @param host host (and optional port) of the mysql server
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection connect(String host) throws SQLException {
+        return connect(host, WorkloadGate.Workload.INTERACTIVE);
+    }
+
+    /**
+     * Opens an instrumented connection to a given database host once the workload
+     * has a permit, closing the connection gives the permit back
+     * @param host host (and optional port) of the mysql server
+     * @param workload kind of work the connection is for
+     * @return database connection
+     * @throws SQLException if no permit was free or the connection could not be made
+     */
+    private Connection connect(String host, WorkloadGate.Workload workload) throws SQLException {
+        gate.acquire(workload);
+        try {
+            return gate.wrap(open(host), workload);
+        } catch (SQLException e) {
+            gate.release(workload);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an instrumented connection to a given database host
+     * @param host host (and optional port) of the mysql server
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection open(String host) throws SQLException {
+        String uri = "jdbc:mysql://" + host + "/" + config.getProperty("database") + "?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=UTC";
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"));
+            failed = false;
+            return metrics.instrument(connection);
+        } finally {
+            metrics.recordConnectionWait(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Opens a connection to the primary
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getWriteConnection() throws SQLException {
+        return connect(router.getPrimary());
+    }
+
+    /**
+     * Opens a connection to the primary for bulk or background work
+     * @param workload kind of work the connection is for
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getWriteConnection(WorkloadGate.Workload workload) throws SQLException {
+        return connect(router.getPrimary(), workload);
+    }
+
+    /**
+     * Opens a connection to the primary for a write made by a user, the user's
+     * reads then stick to the primary so they see their own write
+     * @param username user making the write
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getWriteConnection(String username) throws SQLException {
+        router.markWrite(username);
+        return connect(router.getPrimary());
+    }
+
+    /**
+     * Opens a connection to a read replica, falls back to the primary if the
+     * replica cannot be reached
+     * @param username user the read is for, may be null
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getReadConnection(String username) throws SQLException {
+        return getReadConnection(username, WorkloadGate.Workload.INTERACTIVE);
+    }
+
+    /**
+     * Opens a connection to a read replica for a given kind of work, falls back
+     * to the primary if the replica cannot be reached
+     * @param username user the read is for, may be null
+     * @param workload kind of work the connection is for
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getReadConnection(String username, WorkloadGate.Workload workload) throws SQLException {
+        String host = router.readHost(username);
+        if (host.equals(router.getPrimary())) {
+            return connect(host, workload);
+        }
+
+        try {
+            return connect(host, workload);
+        } catch (SQLTransientConnectionException e) {
+            throw e; // no permit, another host will not help
+        } catch (SQLException e) {
+            router.markFailure(host);
+            return connect(router.getPrimary(), workload);
+        }
+    }
+
+    /**
+     * Opens a connection for writing a given hotel's reviews
+     * @param hotelid hotel id
+     * @param username user making the write, may be null
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getReviewWriteConnection(String hotelid, String username) throws SQLException {
+        if (shards == null) {
+            return getWriteConnection(username);
+        }
+        return connect(shards.shardFor(hotelid));
+    }
+
+    /**
+     * Opens a connection for reading a given hotel's reviews
+     * @param hotelid hotel id
+     * @param username user the read is for, may be null
+     * @return database connection
+     * @throws SQLException if the connection could not be made
+     */
+    private Connection getReviewReadConnection(String hotelid, String username) throws SQLException {
+        if (shards == null) {
+            return getReadConnection(username);
+        }
+        return connect(shards.shardFor(hotelid));
+    }
+
+    /**
+     * Returns every host that holds review data
+     * @return review shard hosts, or just the primary if reviews are not sharded
+     */
+    private List<String> getReviewHosts() {
+        return shards == null ? List.of(router.getPrimary()) : shards.getShards();
+    }
+
     // ------------------------------------ SQL MODIFICATIONS ------------------------------------ //
 
     /**
@@ -44,8 +281,24 @@ public class HotelDB {
      * @param table name of table
      */
     public void createTable(String table) {
+        // review tables are created on every shard
+        if (table.equals("travel_reviews") || table.equals("travel_review_text")) {
+            for (String host : getReviewHosts()) {
+                createTable(host, table);
+            }
+        } else {
+            createTable(router.getPrimary(), table);
+        }
+    }
+
+    /**
+     * Creates sql table on a given host if it does not already exist
+     * @param host database host
+     * @param table name of table
+     */
+    private void createTable(String host, String table) {
         Statement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = connect(host)) {
             statement = connection.createStatement();
             switch (table) {
                 case "travel_users":
@@ -57,9 +310,20 @@ public class HotelDB {
                 case "travel_reviews":
                     statement.executeUpdate(PreparedStatements.CREATE_REVIEWS_TABLE);
                     break;
+                case "travel_review_text":
+                    statement.executeUpdate(PreparedStatements.CREATE_REVIEW_TEXT_TABLE);
+                    break;
                 case "travel_history":
                     statement.executeUpdate(PreparedStatements.CREATE_HISTORY_TABLE);
                     break;
+                case "travel_history_rollup":
+                    statement.executeUpdate(PreparedStatements.CREATE_HISTORY_ROLLUP_TABLE);
+                    // build the rollup from raw history the first time it is created
+                    ResultSet results = statement.executeQuery(PreparedStatements.SELECT_ANY_HISTORY_ROLLUP);
+                    if (!results.next()) {
+                        statement.executeUpdate(PreparedStatements.BACKFILL_HISTORY_ROLLUP);
+                    }
+                    break;
                 case "travel_favorites":
                     statement.executeUpdate(PreparedStatements.CREATE_FAVORITES_TABLE);
                     break;
@@ -69,6 +333,82 @@ public class HotelDB {
         }
     }
 
+    /**
+     * Migrates tables created before coordinates were stored as doubles, ids as
+     * time ordered BINARY(16) and review text compressed in its own table, does
+     * nothing for tables already migrated. Every step checks the current schema
+     * first, so a migration that failed part way picks up where it stopped
+     */
+    public void migrateSchema() {
+        try (Connection connection = getWriteConnection()) {
+            if ("varchar".equals(getColumnType(connection, "travel_hotels", "latitude"))) {
+                connection.createStatement().executeUpdate(PreparedStatements.MIGRATE_HOTEL_COORDINATES);
+            }
+            if ("varchar".equals(getColumnType(connection, "travel_history", "eventid"))) {
+                migrateIds(connection, "travel_history", "eventid", PreparedStatements.MIGRATE_EVENT_IDS_ADD,
+                        PreparedStatements.MIGRATE_EVENT_IDS_FILL, PreparedStatements.MIGRATE_EVENT_IDS_SWAP);
+            }
+        } catch (SQLException e) {
+            System.out.println("SQLException when migrating schema: " + e);
+        }
+
+        for (String host : getReviewHosts()) {
+            try (Connection connection = connect(host)) {
+                if ("varchar".equals(getColumnType(connection, "travel_reviews", "reviewid"))) {
+                    migrateIds(connection, "travel_reviews", "reviewid", PreparedStatements.MIGRATE_REVIEW_IDS_ADD,
+                            PreparedStatements.MIGRATE_REVIEW_IDS_FILL, PreparedStatements.MIGRATE_REVIEW_IDS_SWAP);
+                }
+                // the copy skips bodies already copied, and the column is only dropped once
+                if (getColumnType(connection, "travel_reviews", "text") != null) {
+                    Statement statement = connection.createStatement();
+                    statement.executeUpdate(PreparedStatements.MIGRATE_REVIEW_TEXT_COPY);
+                    statement.executeUpdate(PreparedStatements.MIGRATE_REVIEW_TEXT_DROP);
+                }
+            } catch (SQLException e) {
+                System.out.println("SQLException when migrating review ids on " + host + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Moves a hex string id column over to BINARY(16) in three steps. The binary column
+     * is only added if an earlier run did not get that far, the fill only touches rows
+     * still missing a binary id, and the swap is a single statement
+     * @param connection database connection
+     * @param table table name
+     * @param column hex string id column, the binary one is named column_bin
+     * @param add statement adding the binary column
+     * @param fill statement filling the binary column
+     * @param swap statement swapping the primary key over to the binary column
+     * @throws SQLException if a step fails
+     */
+    private void migrateIds(Connection connection, String table, String column,
+                            String add, String fill, String swap) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (getColumnType(connection, table, column + "_bin") == null) {
+                statement.executeUpdate(add);
+            }
+            statement.executeUpdate(fill);
+            statement.executeUpdate(swap);
+        }
+    }
+
+    /**
+     * Gets the data type of a column in the current database
+     * @param connection database connection
+     * @param table table name
+     * @param column column name
+     * @return lowercase data type, or null if the column does not exist
+     * @throws SQLException if the lookup fails
+     */
+    private String getColumnType(Connection connection, String table, String column) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(PreparedStatements.SELECT_COLUMN_TYPE);
+        statement.setString(1, table);
+        statement.setString(2, column);
+        ResultSet results = statement.executeQuery();
+        return results.next() ? results.getString(1).toLowerCase() : null;
+    }
+
     /**
      * Adds user to sql database after hashing the password
      * @param username username
@@ -80,7 +420,7 @@ public class HotelDB {
         String passHash = PasswordEncoder.getHash(password, userSalt);
 
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             statement = connection.prepareStatement(PreparedStatements.INSERT_USER);
             statement.setString(1, username);
             statement.setString(2, passHash);
@@ -98,7 +438,7 @@ public class HotelDB {
      */
     public void addManyUsers(Set<String> usernames) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection(WorkloadGate.Workload.INGEST)) {
             int i = 1;
             for (String username : usernames) {
                 // hash password
@@ -132,17 +472,33 @@ public class HotelDB {
     public boolean addHotel(String hotelid, String name, String street, String city,
                          String state, String latitude, String longitude) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             statement = connection.prepareStatement(PreparedStatements.INSERT_HOTEL);
             statement.setString(1, hotelid);
             statement.setString(2, name);
             statement.setString(3, street);
             statement.setString(4, city);
             statement.setString(5, state);
-            statement.setString(6, latitude);
-            statement.setString(7, longitude);
+            statement.setDouble(6, Double.parseDouble(latitude));
+            statement.setDouble(7, Double.parseDouble(longitude));
             statement.executeUpdate();
             statement.close();
+
+            // an existing row is kept as it was, so the catalog takes whatever the table now holds
+            statement = connection.prepareStatement(PreparedStatements.SELECT_HOTEL_BY_ID);
+            statement.setString(1, hotelid);
+            ResultSet results = statement.executeQuery();
+            if (results.next()) {
+                Hotel stored = new Hotel(results.getString(1), // hotelid
+                        results.getString(2),   // name
+                        results.getString(3),   // street
+                        results.getString(4),   // city
+                        results.getString(5),   // state
+                        results.getString(6),   // lat
+                        results.getString(7));  // long
+                catalog.updateAndGet(c -> c.with(stored));
+            }
+            statement.close();
             return true;
         } catch (SQLException e) {
             System.out.println("SQLException when adding new hotel: " + e);
@@ -156,7 +512,7 @@ public class HotelDB {
      */
     public void addManyHotels(List<Hotel> hotels) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection(WorkloadGate.Workload.INGEST)) {
             for (Hotel h : hotels) {
                 statement = connection.prepareStatement(PreparedStatements.INSERT_HOTEL);
                 statement.setString(1, h.getHotelid());
@@ -164,8 +520,8 @@ public class HotelDB {
                 statement.setString(3, h.getStreet());
                 statement.setString(4, h.getCity());
                 statement.setString(5, h.getState());
-                statement.setString(6, h.getLatitude());
-                statement.setString(7, h.getLongitude());
+                statement.setDouble(6, Double.parseDouble(h.getLatitude()));
+                statement.setDouble(7, Double.parseDouble(h.getLongitude()));
                 statement.executeUpdate();
                 statement.close();
             }
@@ -176,7 +532,7 @@ public class HotelDB {
 
     /**
      * Adds a review to sql database
-     * @param reviewid random UUID
+     * @param reviewid time ordered id from IdGenerator, as 32 hex characters
      * @param hotelid hotel id
      * @param username nickname
      * @param rating user rating
@@ -187,19 +543,19 @@ public class HotelDB {
      */
     public boolean addReview(String reviewid, String hotelid, String username, String rating,
                              String title, String text, String submission_date) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW);
-            statement.setString(1, reviewid);
-            statement.setString(2, hotelid);
-            statement.setString(3, username);
-            statement.setString(4, rating);
-            statement.setString(5, title);
-            statement.setString(6, text);
-            statement.setString(7, submission_date);
-            statement.executeUpdate();
-            statement.close();
-            return true;
+        try (Connection connection = getReviewWriteConnection(hotelid, username)) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement reviewStatement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW);
+                 PreparedStatement textStatement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW_TEXT)) {
+                insertReview(reviewStatement, textStatement, new Review(reviewid, hotelid, username,
+                        rating, title, text, submission_date));
+                connection.commit();
+                reviewCache.invalidate(hotelid);
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.out.println("SQLException when adding new review: " + e);
             return false;
@@ -207,29 +563,91 @@ public class HotelDB {
     }
 
     /**
-     * Adds a list of reviews to sql database
+     * Adds a list of reviews to sql database, reviews for different shards
+     * are written in parallel on the review writer threads. Returns once
+     * every shard is done
      * @param reviews list of reviews
      */
     public void addManyReviews(List<Review> reviews) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            for (Review r : reviews) {
-                statement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW);
-                statement.setString(1, r.getReviewid());
-                statement.setString(2, r.getHotelid());
-                statement.setString(3, r.getUsername());
-                statement.setString(4, r.getRating());
-                statement.setString(5, r.getTitle());
-                statement.setString(6, r.getText());
-                statement.setString(7, r.getSubmissionDate());
-                statement.executeUpdate();
-                statement.close();
+        // group reviews by the host that owns them
+        Map<String, List<Review>> reviewsByHost = new HashMap<>();
+        for (Review r : reviews) {
+            String host = shards == null ? router.getPrimary() : shards.shardFor(r.getHotelid());
+            reviewsByHost.computeIfAbsent(host, k -> new ArrayList<>()).add(r);
+        }
+
+        if (reviewsByHost.size() == 1) {
+            reviewsByHost.forEach(this::addManyReviews);
+            return;
+        }
+
+        List<Future<?>> writes = new ArrayList<>();
+        reviewsByHost.forEach((host, hostReviews) ->
+                writes.add(reviewWriters.submit(() -> addManyReviews(host, hostReviews))));
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.out.println("Exception when adding new reviews: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Adds a list of reviews to a given host
+     * @param host database host
+     * @param reviews list of reviews
+     */
+    private void addManyReviews(String host, List<Review> reviews) {
+        try (Connection connection = connect(host, WorkloadGate.Workload.INGEST)) {
+            connection.setAutoCommit(false);
+            // each review commits together with its text
+            try (PreparedStatement reviewStatement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW);
+                 PreparedStatement textStatement = connection.prepareStatement(PreparedStatements.INSERT_REVIEW_TEXT)) {
+                for (Review r : reviews) {
+                    insertReview(reviewStatement, textStatement, r);
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
         } catch (SQLException e) {
             System.out.println("SQLException when adding new review: " + e);
+        } finally {
+            // some rows may have gone in even if the load failed part way
+            reviews.stream().map(Review::getHotelid).distinct().forEach(reviewCache::invalidate);
         }
     }
 
+    /**
+     * Inserts a review row and its compressed text. The text is only written
+     * if the review row holds its id, so a user who already reviewed the hotel
+     * keeps their original review and no text is left without a review
+     * @param reviewStatement prepared INSERT_REVIEW statement
+     * @param textStatement prepared INSERT_REVIEW_TEXT statement
+     * @param review review to insert
+     * @throws SQLException if an insert fails
+     */
+    private void insertReview(PreparedStatement reviewStatement, PreparedStatement textStatement,
+                              Review review) throws SQLException {
+        reviewStatement.setString(1, review.getReviewid());
+        reviewStatement.setString(2, review.getHotelid());
+        reviewStatement.setString(3, review.getUsername());
+        reviewStatement.setString(4, review.getRating());
+        reviewStatement.setString(5, review.getTitle());
+        reviewStatement.setString(6, review.getSubmissionDate());
+        reviewStatement.executeUpdate();
+
+        textStatement.setString(1, review.getReviewid());
+        textStatement.setBytes(2, TextCompressor.compress(review.getText()));
+        textStatement.setString(3, review.getReviewid());
+        textStatement.executeUpdate();
+    }
+
     /**
      * Updates a given user review
      * @param hotelid hotel id
@@ -242,18 +660,27 @@ public class HotelDB {
      */
     public boolean updateUserReview(String hotelid, String username, String rating, String title,
                                     String text, String submissionDate) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.UPDATE_REVIEW);
-            statement.setString(1, rating);
-            statement.setString(2, title);
-            statement.setString(3, text);
-            statement.setString(4, submissionDate);
-            statement.setString(5, hotelid);
-            statement.setString(6, username);
-            statement.executeUpdate();
-            statement.close();
-            return true;
+        try (Connection connection = getReviewWriteConnection(hotelid, username)) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement reviewStatement = connection.prepareStatement(PreparedStatements.UPDATE_REVIEW);
+                 PreparedStatement textStatement = connection.prepareStatement(PreparedStatements.UPDATE_REVIEW_TEXT)) {
+                reviewStatement.setString(1, rating);
+                reviewStatement.setString(2, title);
+                reviewStatement.setString(3, submissionDate);
+                reviewStatement.setString(4, hotelid);
+                reviewStatement.setString(5, username);
+                reviewStatement.executeUpdate();
+                textStatement.setBytes(1, TextCompressor.compress(text));
+                textStatement.setString(2, hotelid);
+                textStatement.setString(3, username);
+                textStatement.executeUpdate();
+                connection.commit();
+                reviewCache.invalidate(hotelid);
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.out.println("SQLException when updating user review: " + e);
             return false;
@@ -267,14 +694,24 @@ public class HotelDB {
      * @return true if successfully deleted, false otherwise
      */
     public boolean deleteUserReview(String hotelid, String username) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.DELETE_REVIEW);
-            statement.setString(1, hotelid);
-            statement.setString(2, username);
-            statement.executeUpdate();
-            statement.close();
-            return true;
+        try (Connection connection = getReviewWriteConnection(hotelid, username)) {
+            connection.setAutoCommit(false);
+            // text goes first, it is found through the review row
+            try (PreparedStatement textStatement = connection.prepareStatement(PreparedStatements.DELETE_REVIEW_TEXT);
+                 PreparedStatement reviewStatement = connection.prepareStatement(PreparedStatements.DELETE_REVIEW)) {
+                textStatement.setString(1, hotelid);
+                textStatement.setString(2, username);
+                textStatement.executeUpdate();
+                reviewStatement.setString(1, hotelid);
+                reviewStatement.setString(2, username);
+                reviewStatement.executeUpdate();
+                connection.commit();
+                reviewCache.invalidate(hotelid);
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.out.println("SQLException when deleting user review: " + e);
             return false;
@@ -282,62 +719,119 @@ public class HotelDB {
     }
 
     /**
-     * Adds a favorite hotel for a given user
+     * Adds or removes a favorite hotel for a given user. The current state is read on
+     * the primary with the row locked, so a stale session or replica never adds a
+     * duplicate favorite
      * @param username username
      * @param hotelid hotel id
-     * @return true if successfully added, false otherwise
+     * @param eventDate local date time, used if the favorite is added
+     * @return true if the hotel is now a favorite, false if it no longer is, null if the toggle failed
      */
-    public boolean addUserFavorite(String username, String hotelid , String eventDate) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.INSERT_FAVORITE);
-            statement.setString(1, username);
-            statement.setString(2, hotelid);
-            statement.setString(3, eventDate);
-            statement.executeUpdate();
-            statement.close();
-            return true;
+    public Boolean toggleUserFavorite(String username, String hotelid, String eventDate) {
+        try (Connection connection = getWriteConnection(username)) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement selectStatement = connection.prepareStatement(PreparedStatements.SELECT_FAV_HOTEL_FOR_UPDATE);
+                 PreparedStatement deleteStatement = connection.prepareStatement(PreparedStatements.DELETE_FAVORITE);
+                 PreparedStatement insertStatement = connection.prepareStatement(PreparedStatements.INSERT_FAVORITE)) {
+                selectStatement.setString(1, username);
+                selectStatement.setString(2, hotelid);
+                boolean favorite = selectStatement.executeQuery().next();
+                if (favorite) {
+                    deleteStatement.setString(1, username);
+                    deleteStatement.setString(2, hotelid);
+                    deleteStatement.executeUpdate();
+                } else {
+                    insertStatement.setString(1, username);
+                    insertStatement.setString(2, hotelid);
+                    insertStatement.setString(3, eventDate);
+                    insertStatement.executeUpdate();
+                }
+                connection.commit();
+                return !favorite;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
-            System.out.println("SQLException when adding favorite hotel: " + e);
-            return false;
+            System.out.println("SQLException when toggling favorite hotel: " + e);
+            return null;
         }
     }
 
     /**
      * Adds a link event to sql database
-     * @param eventid random UUID
+     * @param eventid time ordered id from IdGenerator, as 32 hex characters
      * @param expediaLink expedia link
      * @param username username
      * @param eventDate local date time
      * @return true if successfully added, false otherwise
      */
     public boolean addLinkEvent(String eventid, String expediaLink, String username, int hotelid, String eventDate) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.INSERT_LINK_EVENT);
-            statement.setString(1, eventid);
-            statement.setString(2, expediaLink);
-            statement.setString(3, username);
-            statement.setInt(4, hotelid);
-            statement.setString(5, eventDate);
-            statement.executeUpdate();
-            statement.close();
-            return true;
+        router.markWrite(username);
+        return addManyLinkEvents(List.of(new LinkClick(eventid, expediaLink, username, hotelid, eventDate)));
+    }
+
+    /**
+     * Adds a batch of link events to sql database and folds them into the
+     * per user and hotel history rollup
+     * @param clicks list of link clicks
+     * @return true if successfully added, false otherwise
+     */
+    public boolean addManyLinkEvents(List<LinkClick> clicks) {
+        // coalesce clicks on the same hotel by the same user into one rollup update
+        Map<String, LinkClick> latestClicks = new LinkedHashMap<>();
+        Map<String, Integer> visitCounts = new HashMap<>();
+        for (LinkClick click : clicks) {
+            String key = click.getUsername() + "/" + click.getHotelid();
+            latestClicks.put(key, click);
+            visitCounts.merge(key, 1, Integer::sum);
+        }
+
+        try (Connection connection = getWriteConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement eventStatement = connection.prepareStatement(PreparedStatements.INSERT_LINK_EVENT);
+                 PreparedStatement rollupStatement = connection.prepareStatement(PreparedStatements.UPSERT_HISTORY_ROLLUP)) {
+                for (LinkClick click : clicks) {
+                    eventStatement.setString(1, click.getEventid());
+                    eventStatement.setString(2, click.getExpediaLink());
+                    eventStatement.setString(3, click.getUsername());
+                    eventStatement.setInt(4, click.getHotelid());
+                    eventStatement.setString(5, click.getEventDate());
+                    eventStatement.addBatch();
+                }
+                for (Map.Entry<String, LinkClick> entry : latestClicks.entrySet()) {
+                    LinkClick click = entry.getValue();
+                    rollupStatement.setString(1, click.getUsername());
+                    rollupStatement.setInt(2, click.getHotelid());
+                    rollupStatement.setString(3, click.getExpediaLink());
+                    rollupStatement.setInt(4, visitCounts.get(entry.getKey()));
+                    rollupStatement.setString(5, click.getEventDate());
+                    rollupStatement.addBatch();
+                }
+                eventStatement.executeBatch();
+                rollupStatement.executeBatch();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
-            System.out.println("SQLException when adding link event: " + e);
+            System.out.println("SQLException when adding link events: " + e);
             return false;
         }
     }
 
     /**
-     * Deletes a given user's history
+     * Deletes a given user's history rollup, which is all the history page shows.
+     * The raw events are removed in batches with deleteHistoryBatch.
      * @param username username
      * @return true if successfully deleted, false otherwise
      */
     public boolean clearUserHistory(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.CLEAR_HISTORY);
+        try (Connection connection = getWriteConnection(username)) {
+            statement = connection.prepareStatement(PreparedStatements.CLEAR_HISTORY_ROLLUP);
             statement.setString(1, username);
             statement.executeUpdate();
             statement.close();
@@ -349,59 +843,146 @@ public class HotelDB {
     }
 
     /**
-     * Deletes a given user favorite
+     * Deletes up to a batch of a given user's raw history events
      * @param username username
-     * @param hotelid hotelid
-     * @return true if successfully deleted, false otherwise
+     * @param batchSize max rows to delete
+     * @return number of deleted rows
+     * @throws SQLException if the delete fails, so callers can tell lock waits apart
+     */
+    public int deleteHistoryBatch(String username, int batchSize) throws SQLException {
+        return deleteBatch(PreparedStatements.CLEAR_HISTORY_BATCH, username, batchSize);
+    }
+
+    /**
+     * Deletes up to a batch of raw history events older than a given date
+     * @param cutoff local date time, older events are deleted
+     * @param batchSize max rows to delete
+     * @return number of deleted rows
+     * @throws SQLException if the delete fails, so callers can tell lock waits apart
+     */
+    public int purgeHistoryBatch(String cutoff, int batchSize) throws SQLException {
+        return deleteBatch(PreparedStatements.PURGE_HISTORY_BATCH, cutoff, batchSize);
+    }
+
+    /**
+     * Deletes up to a batch of a given user's favorites
+     * @param username username
+     * @param batchSize max rows to delete
+     * @return number of deleted rows
+     * @throws SQLException if the delete fails, so callers can tell lock waits apart
+     */
+    public int deleteFavoritesBatch(String username, int batchSize) throws SQLException {
+        router.markWrite(username);
+        return deleteBatch(PreparedStatements.CLEAR_FAVORITES_BATCH, username, batchSize);
+    }
+
+    /**
+     * Runs a keyed delete statement that takes a key and a row limit
+     * @param sql delete statement
+     * @param key value for the first parameter
+     * @param batchSize max rows to delete
+     * @return number of deleted rows
+     * @throws SQLException if the delete fails
+     */
+    private int deleteBatch(String sql, String key, int batchSize) throws SQLException {
+        try (Connection connection = getWriteConnection(WorkloadGate.Workload.MAINTENANCE);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, key);
+            statement.setInt(2, batchSize);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Finds the date before which raw history events are purged, based on
+     * the history_retention_days setting
+     * @return local date time as string, null if history is kept forever
      */
-    public boolean deleteUserFavorite(String username, String hotelid) {
+    public String getHistoryRetentionCutoff() {
+        int retentionDays = Integer.parseInt(config.getProperty("history_retention_days", "0"));
+        if (retentionDays <= 0) {
+            return null;
+        }
+        return LocalDateTime.now().minusDays(retentionDays).toString();
+    }
+
+    /**
+     * Sets the last login time for a given user, an older time than the stored one is ignored
+     * @param loginTime login time
+     * @param username username
+     * @return true if successfully updated, false otherwise
+     */
+    public boolean setLoginTime(String loginTime, String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.DELETE_FAVORITE);
-            statement.setString(1, username);
-            statement.setString(2, hotelid);
+        try (Connection connection = getWriteConnection(username)) {
+            statement = connection.prepareStatement(PreparedStatements.UPDATE_LOGIN_TIME);
+            statement.setString(1, loginTime);
+            statement.setString(2, username);
+            statement.setString(3, loginTime);
             statement.executeUpdate();
             statement.close();
             return true;
         } catch (SQLException e) {
-            System.out.println("SQLException when deleting user favorite: " + e);
+            System.out.println("SQLException when setting login time: " + e);
             return false;
         }
     }
 
     /**
-     * Deletes all favorites of a given user
-     * @param username username
-     * @return true if successfully deleted, false otherwise
+     * Sets the last login time for a batch of users, an older time than the stored one is ignored
+     * @param loginTimes map of username to login time
+     * @return true if successfully updated, false otherwise
      */
-    public boolean clearUserFavorites(String username) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.CLEAR_FAVORITES);
-            statement.setString(1, username);
-            statement.executeUpdate();
-            statement.close();
+    public boolean setManyLoginTimes(Map<String, String> loginTimes) {
+        try (Connection connection = getWriteConnection();
+             PreparedStatement statement = connection.prepareStatement(PreparedStatements.UPDATE_LOGIN_TIME)) {
+            for (Map.Entry<String, String> entry : loginTimes.entrySet()) {
+                statement.setString(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.setString(3, entry.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
             return true;
         } catch (SQLException e) {
-            System.out.println("SQLException when deleting all favorites: " + e);
+            System.out.println("SQLException when setting login times: " + e);
             return false;
         }
     }
 
-    public void setLoginTime(String loginTime, String username) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.UPDATE_LOGIN_TIME);
-            statement.setString(1, loginTime);
-            statement.setString(2, username);
-            statement.executeUpdate();
-            statement.close();
+    // ------------------------------------ SQL QUERIES ------------------------------------ //
+
+    /**
+     * Reloads the in memory hotel catalog from the database and swaps it in
+     * whole, readers keep using the old catalog until the new one is ready
+     */
+    public void refreshCatalog() {
+        List<Hotel> hotels = new ArrayList<>();
+        try (Connection connection = getReadConnection(null);
+             PreparedStatement statement = connection.prepareStatement(PreparedStatements.SELECT_ALL_HOTELS)) {
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                hotels.add(new Hotel(results.getString(1), // hotelid
+                        results.getString(2),   // name
+                        results.getString(3),   // street
+                        results.getString(4),   // city
+                        results.getString(5),   // state
+                        results.getString(6),   // lat
+                        results.getString(7))); // long
+            }
+            catalog.set(HotelCatalog.of(hotels));
         } catch (SQLException e) {
-            System.out.println("SQLException when setting login time: " + e);
+            System.out.println("SQLException when loading hotel catalog: " + e);
         }
     }
 
-    // ------------------------------------ SQL QUERIES ------------------------------------ //
+    /**
+     * Returns the number of hotels in the in memory catalog
+     * @return catalog size
+     */
+    public int getCatalogSize() {
+        return catalog.get().size();
+    }
 
     /**
      * Checks if username is available
@@ -410,7 +991,7 @@ public class HotelDB {
      */
     public boolean checkUsernameAvailability(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_USERNAME);
             statement.setString(1, username);
 
@@ -430,7 +1011,7 @@ public class HotelDB {
      */
     public boolean authenticateUser(String username, String password) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             statement = connection.prepareStatement(PreparedStatements.AUTHENTICATE_USER);
             String usersalt = getSalt(connection, username);
             String passhash = PasswordEncoder.getHash(password, usersalt);
@@ -453,7 +1034,7 @@ public class HotelDB {
     public List<String> findHotelNames(String name) {
         PreparedStatement statement;
         List<String> hotels = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(null)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_HOTEL_NAME);
             statement.setString(1, "%" + name + "%");
 
@@ -473,9 +1054,14 @@ public class HotelDB {
      * @return Hotel object
      */
     public Hotel getHotelById(String hotelid) {
+        Hotel cached = catalog.get().getById(hotelid);
+        if (cached != null) {
+            return cached;
+        }
+
         PreparedStatement statement;
         Hotel hotel = null;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(null)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_HOTEL_BY_ID);
             statement.setString(1, hotelid);
 
@@ -501,9 +1087,14 @@ public class HotelDB {
      * @return Hotel object
      */
     public Hotel getHotelByName(String name) {
+        Hotel cached = catalog.get().getByName(name);
+        if (cached != null) {
+            return cached;
+        }
+
         PreparedStatement statement;
         Hotel hotel = null;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(null)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_HOTEL_BY_NAME);
             statement.setString(1, name);
 
@@ -524,62 +1115,268 @@ public class HotelDB {
     }
 
     /**
-     * Retrieves the average rating of a hotel
+     * Retrieves the hotel row, average rating, review count, the user's favorite flag
+     * and one page of reviews for a given hotel name. Everything is read over a single
+     * connection unless the hotel's reviews live on another shard.
      * @param name hotel name
-     * @return hotel average rating
+     * @param username username
+     * @param page requested page of reviews (clamped to the valid range)
+     * @param limit reviews per page
+     * @param withText true to read review text, false if the page does not show it
+     * @param withFavorite true to look up the user's favorite flag, false if the caller already knows it
+     * @return HotelPage object, null if hotel does not exist. Its version is the review cache
+     * version it is current for, -1 if it may be stale
      */
-    public String getAvgRating(String name) {
-        PreparedStatement statement;
+    public HotelPage getHotelPage(String name, String username, int page, int limit,
+                                  boolean withText, boolean withFavorite) {
+        // reviews are shared by every user, only the favorite flag has to be looked up
+        String key = "page:" + page + ":" + limit + ":" + withText;
+        Hotel known = catalog.get().getByName(name);
+        if (known != null) {
+            HotelPage cached = reviewCache.get(known.getHotelid(), key, HotelPage.class);
+            if (cached != null) {
+                return withFavorite ? cached.withFavorite(checkFavorite(username, known.getHotelid())) : cached;
+            }
+
+            // the hotel row is already in memory, so only the reviews need reading
+            if (!withFavorite) {
+                long version = reviewCache.version(known.getHotelid());
+                try (Connection connection = getReviewReadConnection(known.getHotelid(), username)) {
+                    HotelPage hotelPage = getHotelPage(connection, known, false, page, limit, withText);
+                    return cachePage(known.getHotelid(), version, key, hotelPage);
+                } catch (SQLException e) {
+                    System.out.println(e);
+                    return null;
+                }
+            }
+        }
+
+        // unsharded, the aggregates come back with the hotel row, so the version is taken before that
+        // statement, which needs the catalog's id. A hotel the catalog does not know is not cached
+        Hotel hotel;
+        boolean favorite;
         String avgRating = null;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.SELECT_AVG_RATING);
-            statement.setString(1, name);
+        int reviewCount = 0;
+        HotelPage hotelPage;
+        long joinedVersion = known == null ? -1 : reviewCache.version(known.getHotelid());
+        try (Connection connection = getReadConnection(username)) {
+            String sql = shards == null ? PreparedStatements.SELECT_HOTEL_PAGE_WITH_STATS
+                    : PreparedStatements.SELECT_HOTEL_PAGE;
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setString(1, username);
+                statement.setString(2, name);
+                ResultSet results = statement.executeQuery();
+                if (!results.next()) {
+                    return null;
+                }
+                hotel = new Hotel(results.getString(1), // hotelid
+                        results.getString(2),   // name
+                        results.getString(3),   // street
+                        results.getString(4),   // city
+                        results.getString(5),   // state
+                        results.getString(6),   // lat
+                        results.getString(7));  // long
+                favorite = results.getBoolean("favorite");
+                if (shards == null) {
+                    avgRating = results.getString("avg_rating");
+                    reviewCount = results.getInt("review_count");
+                }
+            }
 
-            ResultSet results = statement.executeQuery();
-            if (results.next()) {
-                avgRating = results.getString(1);
+            if (shards == null) {
+                hotelPage = getHotelPage(connection, hotel, favorite, avgRating, reviewCount, page, limit, withText);
+                return known == null ? hotelPage : cachePage(hotel.getHotelid(), joinedVersion, key, hotelPage);
             }
         } catch (SQLException e) {
             System.out.println(e);
+            return null;
+        }
+
+        // the hotel connection is closed before the shard's is opened, a request holding one
+        // permit while it waits for another could stall every interactive request under load
+        long version = reviewCache.version(hotel.getHotelid());
+        try (Connection shard = getReviewReadConnection(hotel.getHotelid(), username)) {
+            hotelPage = getHotelPage(shard, hotel, favorite, page, limit, withText);
+            return cachePage(hotel.getHotelid(), version, key, hotelPage);
+        } catch (SQLException e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+
+    /**
+     * Caches a page that was just read. The page is marked with its version only if
+     * the cache takes it as current, a page that may be stale is never marked, so
+     * it is not given a validator the browser would keep revalidating against
+     * @param hotelid hotel id
+     * @param version version taken before the page was read
+     * @param key cache key of the page
+     * @param hotelPage page that was read
+     * @return the page, marked with its version if it is current
+     */
+    private HotelPage cachePage(String hotelid, long version, String key, HotelPage hotelPage) {
+        HotelPage versioned = hotelPage.withVersion(version);
+        return reviewCache.put(hotelid, version, key, versioned.withFavorite(false)) ? versioned : hotelPage;
+    }
+
+    /**
+     * Reads the review aggregates and one page of reviews for a hotel
+     * @param connection connection to the database holding the hotel's reviews
+     * @param hotel hotel
+     * @param favorite true if favorited by the user
+     * @param page requested page of reviews (clamped to the valid range)
+     * @param limit reviews per page
+     * @param withText true to read review text
+     * @return HotelPage object
+     * @throws SQLException if a query fails
+     */
+    private HotelPage getHotelPage(Connection connection, Hotel hotel, boolean favorite,
+                                   int page, int limit, boolean withText) throws SQLException {
+        String avgRating = null;
+        int reviewCount = 0;
+        try (PreparedStatement statement = connection.prepareStatement(PreparedStatements.SELECT_REVIEW_STATS)) {
+            statement.setString(1, hotel.getHotelid());
+            ResultSet results = statement.executeQuery();
+            if (results.next()) {
+                avgRating = results.getString("avg_rating");
+                reviewCount = results.getInt("review_count");
+            }
         }
-        return avgRating;
+        return getHotelPage(connection, hotel, favorite, avgRating, reviewCount, page, limit, withText);
     }
 
     /**
-     * Retrieves a list of reviews for a given hotel name
-     * @param name hotel name
+     * Reads one page of reviews for a hotel whose aggregates are already known
+     * @param connection connection to the database holding the hotel's reviews
+     * @param hotel hotel
+     * @param favorite true if favorited by the user
+     * @param avgRating hotel average rating, null if no reviews
+     * @param reviewCount count of reviews for the hotel
+     * @param page requested page of reviews (clamped to the valid range)
+     * @param limit reviews per page
+     * @param withText true to read review text
+     * @return HotelPage object
+     * @throws SQLException if the query fails
+     */
+    private HotelPage getHotelPage(Connection connection, Hotel hotel, boolean favorite, String avgRating,
+                                   int reviewCount, int page, int limit, boolean withText) throws SQLException {
+        // figure out the page count and clamp the requested page
+        int pageCount = reviewCount % limit == 0 ? reviewCount / limit : reviewCount / limit + 1;
+        if (pageCount == 0) pageCount = 1;
+        if (page > pageCount)
+            page = pageCount;
+        else if (page <= 0)
+            page = 1;
+
+        // only go back for reviews if there are any
+        List<Review> reviews = new ArrayList<>();
+        if (reviewCount > 0) {
+            reviews = getPageReviews(connection, hotel.getHotelid(), limit, (page - 1) * limit, withText);
+        }
+
+        return new HotelPage(hotel, avgRating, reviewCount, favorite, page, pageCount, reviews);
+    }
+
+    /**
+     * Reads a page of reviews for a hotel, newest first. Text is only read
+     * (and decompressed) for the reviews on the page, and only if asked for.
+     * @param connection connection to the database holding the hotel's reviews
+     * @param hotelid hotel id
      * @param limit limit
      * @param offset offset
+     * @param withText true to read review text, otherwise text is left null
      * @return list of Review objects
+     * @throws SQLException if the query fails
      */
-    public List<Review> getHotelReviews(String name, int limit, int offset) {
-        PreparedStatement statement;
+    private List<Review> getPageReviews(Connection connection, String hotelid, int limit, int offset,
+                                        boolean withText) throws SQLException {
         List<Review> reviews = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.SELECT_PAGE_REVIEWS);
-            statement.setString(1, name);
+        String sql = withText ? PreparedStatements.SELECT_PAGE_REVIEWS_WITH_TEXT_BY_ID
+                : PreparedStatements.SELECT_PAGE_REVIEWS_BY_ID;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, hotelid);
             statement.setInt(2, limit);
             statement.setInt(3, offset);
-
             ResultSet results = statement.executeQuery();
-            // will still return a non-empty set if we are looking for a valid hotel,
-            // we will get an all null row since we are left joining onto the hotels
-            while (results.next() && results.getString(1) != null) {
-                Review review= new Review(results.getString(1), // reviewid
+            while (results.next()) {
+                Review review = new Review(results.getString(1), // reviewid
                         results.getString(2),   // hotelid
                         results.getString(3),   // username
                         results.getString(4),   // rating
                         results.getString(5),   // title
-                        results.getString(6),   // text
+                        TextCompressor.decompress(results.getBytes(6)), // text
                         results.getString(7));  // submission_date
                 reviews.add(review);
             }
-        } catch (SQLException e) {
-            System.out.println(e);
         }
         return reviews;
     }
 
+    /**
+     * Streams every review for a hotel, or for every hotel, to a consumer one row
+     * at a time. Rows are read from a forward only result set that the driver
+     * streams, so memory use does not grow with the number of reviews.
+     * @param hotelid hotel id, null to export reviews for every hotel
+     * @param consumer called once per review
+     * @return true if every review was read, false otherwise
+     */
+    public boolean exportReviews(String hotelid, Consumer<Review> consumer) {
+        try {
+            // exports hold a connection for as long as the client takes to read them, so they
+            // have their own permits and never hold up retention or user requested deletes
+            if (hotelid != null) {
+                try (Connection connection = shards == null
+                        ? getReadConnection(null, WorkloadGate.Workload.EXPORT)
+                        : connect(shards.shardFor(hotelid), WorkloadGate.Workload.EXPORT)) {
+                    streamReviews(connection, PreparedStatements.SELECT_EXPORT_REVIEWS_BY_ID, hotelid, consumer);
+                }
+            } else if (shards == null) {
+                try (Connection connection = getReadConnection(null, WorkloadGate.Workload.EXPORT)) {
+                    streamReviews(connection, PreparedStatements.SELECT_EXPORT_REVIEWS, null, consumer);
+                }
+            } else {
+                for (String host : shards.getShards()) {
+                    try (Connection connection = connect(host, WorkloadGate.Workload.EXPORT)) {
+                        streamReviews(connection, PreparedStatements.SELECT_EXPORT_REVIEWS, null, consumer);
+                    }
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.out.println("SQLException when exporting reviews: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs a review query with a streaming result set and hands each row to a consumer
+     * @param connection database connection
+     * @param sql review query
+     * @param hotelid hotel id bound to the query, null if the query takes no parameters
+     * @param consumer called once per review
+     * @throws SQLException if the query fails
+     */
+    private void streamReviews(Connection connection, String sql, String hotelid,
+                               Consumer<Review> consumer) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE); // tells the mysql driver to stream rows
+            if (hotelid != null) {
+                statement.setString(1, hotelid);
+            }
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                consumer.accept(new Review(results.getString(1), // reviewid
+                        results.getString(2),   // hotelid
+                        results.getString(3),   // username
+                        results.getString(4),   // rating
+                        results.getString(5),   // title
+                        TextCompressor.decompress(results.getBytes(6)), // text
+                        results.getString(7))); // submission_date
+            }
+        }
+    }
+
     /**
      * Retrieves the reviewid for a given hotelid and username
      * @param hotelid hotel id
@@ -589,7 +1386,7 @@ public class HotelDB {
     public Review getUserReview(String hotelid, String username) {
         PreparedStatement statement;
         Review review = null;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReviewReadConnection(hotelid, username)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_USER_REVIEW);
             statement.setString(1, hotelid);
             statement.setString(2, username);
@@ -601,7 +1398,7 @@ public class HotelDB {
                         results.getString(3),   // username
                         results.getString(4),   // rating
                         results.getString(5),   // title
-                        results.getString(6),   // text
+                        TextCompressor.decompress(results.getBytes(6)), // text
                         results.getString(7));  // submission_date
             }
         } catch (SQLException e) {
@@ -618,7 +1415,7 @@ public class HotelDB {
     public List<LinkEvent> getLinkEvents(String username) {
         PreparedStatement statement;
         List<LinkEvent> linkEvents = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(username)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_USER_LINKS);
             statement.setString(1, username);
 
@@ -645,7 +1442,7 @@ public class HotelDB {
     public List<FavEvent> getFavEvents(String username) {
         PreparedStatement statement;
         List<FavEvent> favEvents = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(username)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_FAV_EVENTS);
             statement.setString(1, username);
 
@@ -669,7 +1466,7 @@ public class HotelDB {
      */
     public String getLastLogin(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(username)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_LAST_LOGIN);
             statement.setString(1, username);
             ResultSet results = statement.executeQuery();
@@ -688,9 +1485,14 @@ public class HotelDB {
      * @return return a length 2 array of lat and long
      */
     public String[] getLatLong(String hotelid) {
+        Hotel cached = catalog.get().getById(hotelid);
+        if (cached != null) {
+            return new String[] { cached.getLatitude(), cached.getLongitude() };
+        }
+
         PreparedStatement statement;
         String[] latlong = new String[2];
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(null)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_LAT_LONG);
             statement.setString(1, hotelid);
             ResultSet results = statement.executeQuery();
@@ -706,24 +1508,24 @@ public class HotelDB {
     }
 
     /**
-     * Gets the count of reviews for a given hotel id
-     * @param hotelid hotel id
-     * @return return count of reviews
+     * Retrieves the ids of every hotel a user has favorited
+     * @param username username
+     * @return list of hotel ids
      */
-    public int getReviewCount(String hotelid) {
+    public List<Integer> getFavoriteIds(String username) {
         PreparedStatement statement;
-        int count = 0;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            statement = connection.prepareStatement(PreparedStatements.SELECT_REVIEW_COUNT);
-            statement.setString(1, hotelid);
+        List<Integer> hotelids = new ArrayList<>();
+        try (Connection connection = getReadConnection(username)) {
+            statement = connection.prepareStatement(PreparedStatements.SELECT_FAV_HOTEL_IDS);
+            statement.setString(1, username);
             ResultSet results = statement.executeQuery();
-            if (results.next()) {
-                count = Integer.parseInt(results.getString("review_count"));
+            while (results.next()) {
+                hotelids.add(results.getInt("hotelid"));
             }
         } catch (SQLException e) {
             System.out.println(e);
         }
-        return count;
+        return hotelids;
     }
 
     /**
@@ -734,7 +1536,7 @@ public class HotelDB {
      */
     public boolean checkFavorite(String username, String hotelid) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection(username)) {
             statement = connection.prepareStatement(PreparedStatements.SELECT_FAV_HOTEL);
             statement.setString(1, username);
             statement.setString(2, hotelid);
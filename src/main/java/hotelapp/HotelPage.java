@@ -0,0 +1,93 @@
+package hotelapp;
+
+import java.util.List;
+
+/** Holds everything the hotel info page needs for one user and one page of reviews */
+public class HotelPage {
+    private final Hotel hotel;
+    private final String avgRating;
+    private final int reviewCount;
+    private final boolean favorite;
+    private final int page;
+    private final int pageCount;
+    private final List<Review> reviews;
+    private final long version; // review cache version the page is known current for, -1 if not known
+
+    /**
+     * Constructor for HotelPage class
+     * @param hotel hotel data
+     * @param avgRating hotel average rating, null if no reviews
+     * @param reviewCount count of reviews for the hotel
+     * @param favorite true if favorited by the user
+     * @param page current page of reviews (starting at 1)
+     * @param pageCount total number of review pages
+     * @param reviews reviews on the current page
+     */
+    public HotelPage(Hotel hotel, String avgRating, int reviewCount, boolean favorite,
+                     int page, int pageCount, List<Review> reviews) {
+        this(hotel, avgRating, reviewCount, favorite, page, pageCount, reviews, -1);
+    }
+
+    private HotelPage(Hotel hotel, String avgRating, int reviewCount, boolean favorite,
+                      int page, int pageCount, List<Review> reviews, long version) {
+        this.hotel = hotel;
+        this.avgRating = avgRating;
+        this.reviewCount = reviewCount;
+        this.favorite = favorite;
+        this.page = page;
+        this.pageCount = pageCount;
+        this.reviews = reviews;
+        this.version = version;
+    }
+
+    /**
+     * Returns a copy of this page for a user with the given favorite flag,
+     * cached pages are shared by every user
+     * @param favorite true if favorited by the user
+     * @return HotelPage object
+     */
+    public HotelPage withFavorite(boolean favorite) {
+        return new HotelPage(hotel, avgRating, reviewCount, favorite, page, pageCount, reviews, version);
+    }
+
+    /**
+     * Returns a copy of this page marked as current for a review cache version
+     * @param version version the page was read under
+     * @return HotelPage object
+     */
+    public HotelPage withVersion(long version) {
+        return new HotelPage(hotel, avgRating, reviewCount, favorite, page, pageCount, reviews, version);
+    }
+
+    public Hotel getHotel() {
+        return hotel;
+    }
+
+    public String getAvgRating() {
+        return avgRating;
+    }
+
+    public int getReviewCount() {
+        return reviewCount;
+    }
+
+    public boolean isFavorite() {
+        return favorite;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public List<Review> getReviews() {
+        return reviews;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
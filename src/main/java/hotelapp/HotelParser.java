@@ -63,6 +63,7 @@ public class HotelParser {
 
             // add to sql database
             hotelDB.addManyHotels(hotelList);
+            hotelDB.refreshCatalog();
             System.out.println("Hotel data successfully parsed.");
         } catch (IOException e) {
             System.out.println("Could not find file: " + filename);
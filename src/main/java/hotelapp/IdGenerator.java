@@ -0,0 +1,58 @@
+package hotelapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Utility class for generating time ordered 128 bit ids, stored as BINARY(16).
+ * The first 48 bits are a millisecond timestamp so new rows are appended to the
+ * end of the primary key index instead of landing at random positions.
+ */
+public class IdGenerator {
+
+    /**
+     * Generates a new id for the current time
+     * @return id as 32 hex characters
+     */
+    public static String newId() {
+        byte[] random = new byte[10];
+        ThreadLocalRandom.current().nextBytes(random);
+        return buildId(System.currentTimeMillis(), random);
+    }
+
+    /**
+     * Generates a repeatable id for a given time and source key, so reloading
+     * the same data produces the same ids
+     * @param epochMillis time the id should sort by
+     * @param key source key, for example an imported review id
+     * @return id as 32 hex characters
+     */
+    public static String fromTime(long epochMillis, String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            byte[] tail = new byte[10];
+            System.arraycopy(digest, 0, tail, 0, tail.length);
+            return buildId(epochMillis, tail);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lays out a 48 bit timestamp followed by 80 bits of tail
+     * @param epochMillis timestamp in milliseconds
+     * @param tail 10 bytes that make the id unique
+     * @return id as 32 hex characters
+     */
+    private static String buildId(long epochMillis, byte[] tail) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putShort((short) (epochMillis >>> 32));
+        buffer.putInt((int) epochMillis);
+        buffer.put(tail);
+        return PasswordEncoder.encodeHex(buffer.array(), 32);
+    }
+}
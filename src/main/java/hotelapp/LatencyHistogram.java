@@ -0,0 +1,91 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Thread safe latency histogram with exponentially growing buckets, each
+ * bucket is 25% wider than the one before so percentiles stay within 25%
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS = buildBounds(); // bucket upper bounds in microseconds
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong totalMicros;
+    private final LongAccumulator maxMicros;
+
+    /** Constructor for LatencyHistogram */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BOUNDS.length + 1); // last bucket catches everything larger
+        this.count = new AtomicLong();
+        this.totalMicros = new AtomicLong();
+        this.maxMicros = new LongAccumulator(Long::max, 0);
+    }
+
+    /**
+     * Builds bucket bounds from 10 microseconds up to about two minutes
+     * @return bucket upper bounds in microseconds
+     */
+    private static long[] buildBounds() {
+        List<Long> bounds = new ArrayList<>();
+        for (double bound = 10; bound < 120_000_000; bound *= 1.25) {
+            bounds.add((long) bound);
+        }
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Records one latency
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int i = 0;
+        while (i < BOUNDS.length && micros > BOUNDS[i]) {
+            i++;
+        }
+        counts.incrementAndGet(i);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in
+     * @param percentile percentile between 0 and 1
+     * @return latency in milliseconds, 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(BOUNDS[i], maxMicros.get()) / 1000.0;
+            }
+        }
+        return maxMicros.get() / 1000.0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long total = count.get();
+        return total == 0 ? 0 : totalMicros.get() / 1000.0 / total;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+}
@@ -0,0 +1,46 @@
+package hotelapp;
+
+/** Holds a single expedia link click waiting to be written to travel_history */
+public class LinkClick {
+    private final String eventid;
+    private final String expediaLink;
+    private final String username;
+    private final int hotelid;
+    private final String eventDate;
+
+    /**
+     * Constructor for LinkClick class
+     * @param eventid random UUID
+     * @param expediaLink expedia link
+     * @param username username
+     * @param hotelid hotel id
+     * @param eventDate local date time
+     */
+    public LinkClick(String eventid, String expediaLink, String username, int hotelid, String eventDate) {
+        this.eventid = eventid;
+        this.expediaLink = expediaLink;
+        this.username = username;
+        this.hotelid = hotelid;
+        this.eventDate = eventDate;
+    }
+
+    public String getEventid() {
+        return eventid;
+    }
+
+    public String getExpediaLink() {
+        return expediaLink;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getHotelid() {
+        return hotelid;
+    }
+
+    public String getEventDate() {
+        return eventDate;
+    }
+}
@@ -0,0 +1,212 @@
+package hotelapp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs history retention and user requested clears in the background as
+ * small delete batches, pausing between batches so row locks are held briefly.
+ * User requested clears have their own thread so they never queue behind a
+ * retention run
+ */
+public class MaintenanceScheduler {
+    private static final int LOCK_WAIT_TIMEOUT = 1205; // mysql error codes worth retrying
+    private static final int DEADLOCK = 1213;
+    private static final int MAX_RETRIES = 3;
+
+    private final HotelDB hotelDB;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final ScheduledExecutorService executor; // retention runs
+    private final ExecutorService userExecutor; // user requested clears
+    private final Logger logger = LogManager.getLogger();
+
+    // metrics
+    private final AtomicLong jobsRun = new AtomicLong();
+    private final AtomicLong batchesRun = new AtomicLong();
+    private final AtomicLong rowsDeleted = new AtomicLong();
+    private final AtomicLong lockWaits = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+    private volatile long lastBatchMillis;
+    private volatile long maxBatchMillis;
+    private volatile String currentJob;
+    private volatile long currentJobRows;
+
+    /** A delete that removes up to a batch of rows and returns how many it removed */
+    private interface BatchDelete {
+        int run(int batchSize) throws SQLException;
+    }
+
+    /**
+     * Constructor for MaintenanceScheduler
+     * @param hotelDB database handler
+     * @param batchSize max rows deleted per statement
+     * @param pauseMillis pause between batches
+     */
+    public MaintenanceScheduler(HotelDB hotelDB, int batchSize, long pauseMillis) {
+        this.hotelDB = hotelDB;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.userExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maintenance-user");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts running the history retention policy on a fixed interval
+     * @param intervalMinutes minutes between retention runs
+     */
+    public void start(long intervalMinutes) {
+        executor.scheduleWithFixedDelay(this::purgeExpiredHistory, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Queues removal of a user's raw history events
+     * @param username username
+     * @return future holding true once the history is gone, false if the job failed
+     */
+    public Future<Boolean> clearHistory(String username) {
+        return userExecutor.submit(() -> runJob("clear history",
+                limit -> hotelDB.deleteHistoryBatch(username, limit)));
+    }
+
+    /**
+     * Queues removal of all of a user's favorites
+     * @param username username
+     * @return future holding true once the favorites are gone, false if the job failed
+     */
+    public Future<Boolean> clearFavorites(String username) {
+        return userExecutor.submit(() -> runJob("clear favorites",
+                limit -> hotelDB.deleteFavoritesBatch(username, limit)));
+    }
+
+    /** Deletes raw history events that are past the retention window */
+    private void purgeExpiredHistory() {
+        String cutoff = hotelDB.getHistoryRetentionCutoff();
+        if (cutoff != null) {
+            runJob("purge history before " + cutoff, limit -> hotelDB.purgeHistoryBatch(cutoff, limit));
+        }
+    }
+
+    /**
+     * Runs a delete in batches until a batch comes back short
+     * @param name job name for logging and metrics, it must not name a user
+     * @param delete batched delete
+     * @return true if every batch ran, false if the job failed or was interrupted
+     */
+    private boolean runJob(String name, BatchDelete delete) {
+        currentJob = name;
+        currentJobRows = 0;
+        jobsRun.incrementAndGet();
+        logger.debug("Started maintenance job: " + name);
+
+        try {
+            int deleted;
+            do {
+                deleted = runBatch(delete);
+                currentJobRows += deleted;
+                rowsDeleted.addAndGet(deleted);
+                logger.debug("Maintenance job " + name + " deleted " + currentJobRows + " rows so far");
+                if (deleted == batchSize) {
+                    Thread.sleep(pauseMillis);
+                }
+            } while (deleted == batchSize);
+            logger.debug("Finished maintenance job: " + name + ", deleted " + currentJobRows + " rows");
+            return true;
+        } catch (SQLException e) {
+            failedJobs.incrementAndGet();
+            logger.error("Maintenance job " + name + " failed: " + e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // a job on the other thread may have started since
+            if (name.equals(currentJob)) currentJob = null;
+        }
+    }
+
+    /**
+     * Runs one batch, retrying with a growing pause if it hit a lock wait timeout or deadlock
+     * @param delete batched delete
+     * @return number of deleted rows
+     * @throws SQLException if the batch keeps failing
+     * @throws InterruptedException if interrupted while pausing
+     */
+    private int runBatch(BatchDelete delete) throws SQLException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                return delete.run(batchSize);
+            } catch (SQLException e) {
+                if ((e.getErrorCode() != LOCK_WAIT_TIMEOUT && e.getErrorCode() != DEADLOCK) || attempt == MAX_RETRIES) {
+                    throw e;
+                }
+                lockWaits.incrementAndGet();
+                Thread.sleep(pauseMillis * attempt);
+            } finally {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                lastBatchMillis = millis;
+                if (millis > maxBatchMillis) maxBatchMillis = millis;
+                batchesRun.incrementAndGet();
+            }
+        }
+    }
+
+    /** Stops running maintenance jobs */
+    public void shutdown() {
+        executor.shutdownNow();
+        userExecutor.shutdownNow();
+    }
+
+    public long getJobsRun() {
+        return jobsRun.get();
+    }
+
+    public long getBatchesRun() {
+        return batchesRun.get();
+    }
+
+    public long getRowsDeleted() {
+        return rowsDeleted.get();
+    }
+
+    public long getLockWaits() {
+        return lockWaits.get();
+    }
+
+    public long getFailedJobs() {
+        return failedJobs.get();
+    }
+
+    public long getLastBatchMillis() {
+        return lastBatchMillis;
+    }
+
+    public long getMaxBatchMillis() {
+        return maxBatchMillis;
+    }
+
+    public String getCurrentJob() {
+        return currentJob;
+    }
+
+    public long getCurrentJobRows() {
+        return currentJobRows;
+    }
+}
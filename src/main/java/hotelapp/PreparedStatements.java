@@ -22,29 +22,104 @@ public class PreparedStatements {
                     "street VARCHAR(50) NOT NULL, " +
                     "city VARCHAR(50) NOT NULL, " +
                     "state VARCHAR(50) NOT NULL, " +
-                    "latitude VARCHAR(50) NOT NULL, " +
-                    "longitude VARCHAR(50) NOT NULL);";
+                    "latitude DOUBLE NOT NULL, " +
+                    "longitude DOUBLE NOT NULL);";
 
     // creates travel_reviews table
     public static final String CREATE_REVIEWS_TABLE =
             "CREATE TABLE IF NOT EXISTS travel_reviews (" +
-                    "reviewid VARCHAR(32) PRIMARY KEY, " +
+                    "reviewid BINARY(16) PRIMARY KEY, " +
                     "hotelid INTEGER NOT NULL, " +
                     "username VARCHAR(32) NOT NULL, " +
                     "rating INTEGER NOT NULL, " +
                     "title VARCHAR(50) NOT NULL, " +
-                    "text VARCHAR(1600) NOT NULL, " +
                     "submission_date DATETIME NOT NULL, " +
                     "UNIQUE KEY hotel_user (hotelid, username));";
 
+    // creates travel_review_text table, compressed review bodies kept out of travel_reviews
+    public static final String CREATE_REVIEW_TEXT_TABLE =
+            "CREATE TABLE IF NOT EXISTS travel_review_text (" +
+                    "reviewid BINARY(16) PRIMARY KEY, " +
+                    "body BLOB NOT NULL);";
+
     // creates travel_history table
     public static final String CREATE_HISTORY_TABLE =
             "CREATE TABLE IF NOT EXISTS travel_history (" +
-                    "eventid VARCHAR(32) PRIMARY KEY, " +
+                    "eventid BINARY(16) PRIMARY KEY, " +
                     "expedia_link VARCHAR(600) NOT NULL, " +
                     "username VARCHAR(32) NOT NULL, " +
                     "hotelid INTEGER NOT NULL, " +
-                    "event_date DATETIME NOT NULL);";
+                    "event_date DATETIME NOT NULL, " +
+                    "KEY username (username), " +
+                    "KEY event_date (event_date));";
+
+    // creates travel_history_rollup table, one row per user and visited hotel
+    public static final String CREATE_HISTORY_ROLLUP_TABLE =
+            "CREATE TABLE IF NOT EXISTS travel_history_rollup (" +
+                    "username VARCHAR(32) NOT NULL, " +
+                    "hotelid INTEGER NOT NULL, " +
+                    "expedia_link VARCHAR(600) NOT NULL, " +
+                    "visit_count INTEGER NOT NULL, " +
+                    "last_visit DATETIME NOT NULL, " +
+                    "PRIMARY KEY (username, hotelid));";
+
+    // fills travel_history_rollup from the raw events in travel_history
+    public static final String BACKFILL_HISTORY_ROLLUP =
+            "INSERT IGNORE INTO travel_history_rollup (username, hotelid, expedia_link, visit_count, last_visit) " +
+                    "SELECT username, hotelid, MAX(expedia_link), COUNT(*), MAX(event_date) " +
+                    "FROM travel_history GROUP BY username, hotelid;";
+
+    // selects the current type of a column, used to tell if a table still needs migrating
+    public static final String SELECT_COLUMN_TYPE =
+            "SELECT DATA_TYPE FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?;";
+
+    // converts hotel coordinates from strings to doubles
+    public static final String MIGRATE_HOTEL_COORDINATES =
+            "ALTER TABLE travel_hotels " +
+                    "MODIFY latitude DOUBLE NOT NULL, " +
+                    "MODIFY longitude DOUBLE NOT NULL;";
+
+    // adds a binary review id column next to the hex string one
+    public static final String MIGRATE_REVIEW_IDS_ADD =
+            "ALTER TABLE travel_reviews ADD COLUMN reviewid_bin BINARY(16) AFTER reviewid;";
+
+    // fills the binary review id column from the hex string one, skipping rows already filled
+    public static final String MIGRATE_REVIEW_IDS_FILL =
+            "UPDATE travel_reviews SET reviewid_bin = UNHEX(reviewid) WHERE reviewid_bin IS NULL;";
+
+    // swaps the primary key over to the binary review id column
+    public static final String MIGRATE_REVIEW_IDS_SWAP =
+            "ALTER TABLE travel_reviews " +
+                    "DROP PRIMARY KEY, " +
+                    "DROP COLUMN reviewid, " +
+                    "CHANGE reviewid_bin reviewid BINARY(16) NOT NULL, " +
+                    "ADD PRIMARY KEY (reviewid);";
+
+    // adds a binary event id column next to the hex string one
+    public static final String MIGRATE_EVENT_IDS_ADD =
+            "ALTER TABLE travel_history ADD COLUMN eventid_bin BINARY(16) AFTER eventid;";
+
+    // fills the binary event id column from the hex string one, skipping rows already filled
+    public static final String MIGRATE_EVENT_IDS_FILL =
+            "UPDATE travel_history SET eventid_bin = UNHEX(eventid) WHERE eventid_bin IS NULL;";
+
+    // swaps the primary key over to the binary event id column
+    public static final String MIGRATE_EVENT_IDS_SWAP =
+            "ALTER TABLE travel_history " +
+                    "DROP PRIMARY KEY, " +
+                    "DROP COLUMN eventid, " +
+                    "CHANGE eventid_bin eventid BINARY(16) NOT NULL, " +
+                    "ADD PRIMARY KEY (eventid);";
+
+    // moves review bodies out of travel_reviews into travel_review_text, compressed
+    public static final String MIGRATE_REVIEW_TEXT_COPY =
+            "INSERT IGNORE INTO travel_review_text (reviewid, body) " +
+                    "SELECT reviewid, COMPRESS(text) FROM travel_reviews;";
+
+    // drops the inline review text column once it has been copied
+    public static final String MIGRATE_REVIEW_TEXT_DROP =
+            "ALTER TABLE travel_reviews DROP COLUMN text;";
 
     // creates travel_favorites table
     public static final String CREATE_FAVORITES_TABLE =
@@ -52,7 +127,8 @@ public class PreparedStatements {
                     "id INTEGER AUTO_INCREMENT PRIMARY KEY, " +
                     "username VARCHAR(32) NOT NULL, " +
                     "hotelid INTEGER NOT NULL, " +
-                    "event_date DATETIME NOT NULL);";
+                    "event_date DATETIME NOT NULL, " +
+                    "KEY username_hotel (username, hotelid));";
 
     // inserts user to travel_users table
     public static final String INSERT_USER =
@@ -68,8 +144,16 @@ public class PreparedStatements {
 
     // inserts review to travel_reviews table
     public static final String INSERT_REVIEW =
-            "INSERT INTO travel_reviews (reviewid, hotelid, username, rating, title, text, submission_date) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "INSERT INTO travel_reviews (reviewid, hotelid, username, rating, title, submission_date) " +
+                    "VALUES (UNHEX(?), ?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE reviewid = reviewid;"; // will not trigger update
+
+    // inserts compressed review text to travel_review_text table, only if
+    // travel_reviews holds a row with the same id
+    public static final String INSERT_REVIEW_TEXT =
+            "INSERT INTO travel_review_text (reviewid, body) " +
+                    "SELECT UNHEX(?), ? FROM DUAL " +
+                    "WHERE EXISTS (SELECT 1 FROM travel_reviews WHERE reviewid = UNHEX(?)) " +
                     "ON DUPLICATE KEY UPDATE reviewid = reviewid;"; // will not trigger update
 
     // updates a user review in travel_reviews table
@@ -77,26 +161,55 @@ public class PreparedStatements {
             "UPDATE travel_reviews " +
                     "SET rating = ?, " +
                     "title = ?, " +
-                    "text = ?, " +
                     "submission_date = ? " +
                     "WHERE hotelid = ? AND username = ?";
 
+    // updates the compressed text of a user review in travel_review_text table
+    public static final String UPDATE_REVIEW_TEXT =
+            "UPDATE travel_review_text " +
+                    "JOIN travel_reviews ON travel_reviews.reviewid = travel_review_text.reviewid " +
+                    "SET travel_review_text.body = ? " +
+                    "WHERE travel_reviews.hotelid = ? AND travel_reviews.username = ?";
+
     // deletes a users review in travel_reviews table
     public static final String DELETE_REVIEW =
             "DELETE from travel_reviews WHERE hotelid = ? AND username = ?";
 
+    // deletes the text of a users review in travel_review_text table
+    public static final String DELETE_REVIEW_TEXT =
+            "DELETE travel_review_text FROM travel_review_text " +
+                    "JOIN travel_reviews ON travel_reviews.reviewid = travel_review_text.reviewid " +
+                    "WHERE travel_reviews.hotelid = ? AND travel_reviews.username = ?";
+
     // inserts a new expedia link event in travel_history table
     public static final String INSERT_LINK_EVENT =
             "INSERT INTO travel_history (eventid, expedia_link, username, hotelid, event_date) " +
-                    "VALUES (?, ?, ?, ?, ?);";
+                    "VALUES (UNHEX(?), ?, ?, ?, ?);";
+
+    // adds visits to a user's rollup row for a hotel
+    public static final String UPSERT_HISTORY_ROLLUP =
+            "INSERT INTO travel_history_rollup (username, hotelid, expedia_link, visit_count, last_visit) " +
+                    "VALUES (?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE visit_count = visit_count + VALUES(visit_count), " +
+                    "last_visit = GREATEST(last_visit, VALUES(last_visit)), " +
+                    "expedia_link = VALUES(expedia_link);";
 
-    // clear the expedia links
-    public static final String CLEAR_HISTORY =
-            "DELETE FROM travel_history WHERE username = ?";
+    // clear a batch of the expedia links
+    public static final String CLEAR_HISTORY_BATCH =
+            "DELETE FROM travel_history WHERE username = ? LIMIT ?";
 
-    // update login time
+    // clear the expedia link rollup
+    public static final String CLEAR_HISTORY_ROLLUP =
+            "DELETE FROM travel_history_rollup WHERE username = ?";
+
+    // deletes a batch of raw expedia link events older than a given date
+    public static final String PURGE_HISTORY_BATCH =
+            "DELETE FROM travel_history WHERE event_date < ? LIMIT ?";
+
+    // update login time, only ever moves it forward so a late buffered write cannot undo a newer one
     public static final String UPDATE_LOGIN_TIME =
-            "UPDATE travel_users SET last_login = ? WHERE username = ?;";
+            "UPDATE travel_users SET last_login = ? WHERE username = ? " +
+                    "AND (last_login IS NULL OR last_login < ?);";
 
     // inserts a new favorite hotel for a given user
     public static final String INSERT_FAVORITE =
@@ -106,9 +219,9 @@ public class PreparedStatements {
     public static final String DELETE_FAVORITE =
             "DELETE FROM travel_favorites WHERE username = ? AND hotelid = ?";
 
-    // deletes all favorites of a given user
-    public static final String CLEAR_FAVORITES =
-            "DELETE FROM travel_favorites WHERE username = ?";
+    // deletes a batch of favorites of a given user
+    public static final String CLEAR_FAVORITES_BATCH =
+            "DELETE FROM travel_favorites WHERE username = ? LIMIT ?";
 
     /** ------------------------------------ SQL QUERIES ------------------------------------ */
 
@@ -138,48 +251,46 @@ public class PreparedStatements {
             "SELECT hotelid, name, street, city, state, latitude, longitude " +
                     "FROM travel_hotels WHERE name = ?";
 
-    // selects avg rating for a given hotel name
-    public static final String SELECT_AVG_RATING =
-            "SELECT AVG(rating) AS avg_rating " +
-                    "FROM travel_hotels " +
-                    "LEFT JOIN travel_reviews " +
-                    "ON travel_reviews.hotelid = travel_hotels.hotelid " +
-                    "GROUP BY travel_hotels.name " +
-                    "HAVING name = ?;";
-
-    // selects count of reviews for a given hotel name
-    public static final String SELECT_REVIEW_COUNT =
-            "SELECT COUNT(*) AS review_count FROM travel_reviews " +
-                    "WHERE travel_reviews.hotelid = ? " +
-                    "GROUP BY travel_reviews.hotelid;";
+    // selects every hotel, used to load the in memory catalog
+    public static final String SELECT_ALL_HOTELS =
+            "SELECT hotelid, name, street, city, state, latitude, longitude FROM travel_hotels";
 
     // selects all review data for a given hotel name
     public static final String SELECT_HOTEL_REVIEWS =
-            "SELECT travel_reviews.reviewid, travel_reviews.hotelid, travel_reviews.username, " +
-                    "travel_reviews.rating, travel_reviews.title, travel_reviews.text, " +
+            "SELECT HEX(travel_reviews.reviewid) AS reviewid, travel_reviews.hotelid, travel_reviews.username, " +
+                    "travel_reviews.rating, travel_reviews.title, travel_review_text.body, " +
                     "travel_reviews.submission_date " +
                     "FROM travel_hotels " +
                     "LEFT JOIN travel_reviews " +
                     "ON travel_reviews.hotelid = travel_hotels.hotelid " +
+                    "LEFT JOIN travel_review_text " +
+                    "ON travel_review_text.reviewid = travel_reviews.reviewid " +
                     "WHERE travel_hotels.name = ? " +
                     "ORDER BY travel_reviews.submission_date DESC";
 
     // selects review data for a given hotelid and username
     public static final String SELECT_USER_REVIEW =
-            "SELECT reviewid, hotelid, username, rating, title, text, submission_date " +
-                    "FROM travel_reviews WHERE hotelid = ? AND username = ?";
+            "SELECT HEX(travel_reviews.reviewid) AS reviewid, travel_reviews.hotelid, travel_reviews.username, " +
+                    "travel_reviews.rating, travel_reviews.title, travel_review_text.body, " +
+                    "travel_reviews.submission_date " +
+                    "FROM travel_reviews " +
+                    "LEFT JOIN travel_review_text ON travel_review_text.reviewid = travel_reviews.reviewid " +
+                    "WHERE travel_reviews.hotelid = ? AND travel_reviews.username = ?";
 
     // selects all link events for a given user
     public static final String SELECT_USER_LINKS =
-            "SELECT travel_history.hotelid, travel_hotels.name, travel_history.expedia_link, " +
-                    "MAX(travel_history.event_date) AS latest_event_date, " +
-                    "COUNT(travel_history.expedia_link) AS visit_count " +
-                    "FROM travel_history " +
-                    "LEFT JOIN travel_hotels ON travel_hotels.hotelid = travel_history.hotelid " +
-                    "WHERE travel_history.username = ? " +
-                    "GROUP BY travel_history.username, travel_history.expedia_link " +
+            "SELECT travel_history_rollup.hotelid, travel_hotels.name, travel_history_rollup.expedia_link, " +
+                    "travel_history_rollup.last_visit AS latest_event_date, " +
+                    "travel_history_rollup.visit_count " +
+                    "FROM travel_history_rollup " +
+                    "LEFT JOIN travel_hotels ON travel_hotels.hotelid = travel_history_rollup.hotelid " +
+                    "WHERE travel_history_rollup.username = ? " +
                     "ORDER BY latest_event_date DESC;";
 
+    // checks if travel_history_rollup has any rows
+    public static final String SELECT_ANY_HISTORY_ROLLUP =
+            "SELECT 1 FROM travel_history_rollup LIMIT 1;";
+
     // selects all fav events for a given user
     public static final String SELECT_FAV_EVENTS =
             "SELECT travel_favorites.hotelid, travel_hotels.name, travel_favorites.event_date " +
@@ -200,15 +311,72 @@ public class PreparedStatements {
     public static final String SELECT_FAV_HOTEL =
             "SELECT hotelid FROM travel_favorites WHERE username = ? AND hotelid = ?;";
 
-    // selects the subset of reviews for pagination
-    public static final String SELECT_PAGE_REVIEWS =
-            "SELECT travel_reviews.reviewid, travel_reviews.hotelid, travel_reviews.username, " +
-                    "travel_reviews.rating, travel_reviews.title, travel_reviews.text, " +
-                    "travel_reviews.submission_date " +
-                    "FROM travel_hotels " +
-                    "LEFT JOIN travel_reviews " +
-                    "ON travel_reviews.hotelid = travel_hotels.hotelid " +
-                    "WHERE travel_hotels.name = ? " +
-                    "ORDER BY travel_reviews.submission_date DESC " +
+    // selects a user favorite and locks it, or the gap it would go in, until the transaction ends
+    public static final String SELECT_FAV_HOTEL_FOR_UPDATE =
+            "SELECT hotelid FROM travel_favorites WHERE username = ? AND hotelid = ? FOR UPDATE;";
+
+    // selects the ids of every hotel favorited by a user
+    public static final String SELECT_FAV_HOTEL_IDS =
+            "SELECT DISTINCT hotelid FROM travel_favorites WHERE username = ?;";
+
+    // selects hotel data and the user's favorite flag for a given hotel name
+    public static final String SELECT_HOTEL_PAGE =
+            "SELECT travel_hotels.hotelid, travel_hotels.name, travel_hotels.street, " +
+                    "travel_hotels.city, travel_hotels.state, travel_hotels.latitude, travel_hotels.longitude, " +
+                    "EXISTS (SELECT 1 FROM travel_favorites WHERE travel_favorites.username = ? " +
+                    "AND travel_favorites.hotelid = travel_hotels.hotelid) AS favorite " +
+                    "FROM travel_hotels WHERE travel_hotels.name = ?;";
+
+    // selects hotel data, avg rating, review count and whether the user favorited it for a given hotel name,
+    // only for unsharded setups where the reviews live next to the hotels
+    public static final String SELECT_HOTEL_PAGE_WITH_STATS =
+            "SELECT travel_hotels.hotelid, travel_hotels.name, travel_hotels.street, " +
+                    "travel_hotels.city, travel_hotels.state, travel_hotels.latitude, travel_hotels.longitude, " +
+                    "(SELECT AVG(rating) FROM travel_reviews " +
+                    "WHERE travel_reviews.hotelid = travel_hotels.hotelid) AS avg_rating, " +
+                    "(SELECT COUNT(*) FROM travel_reviews " +
+                    "WHERE travel_reviews.hotelid = travel_hotels.hotelid) AS review_count, " +
+                    "EXISTS (SELECT 1 FROM travel_favorites WHERE travel_favorites.username = ? " +
+                    "AND travel_favorites.hotelid = travel_hotels.hotelid) AS favorite " +
+                    "FROM travel_hotels WHERE travel_hotels.name = ?;";
+
+    // selects avg rating and count of reviews for a given hotelid
+    public static final String SELECT_REVIEW_STATS =
+            "SELECT AVG(rating) AS avg_rating, COUNT(*) AS review_count " +
+                    "FROM travel_reviews WHERE hotelid = ?;";
+
+    // selects the subset of reviews for pagination by hotelid, without review text
+    public static final String SELECT_PAGE_REVIEWS_BY_ID =
+            "SELECT HEX(reviewid) AS reviewid, hotelid, username, rating, title, NULL AS body, submission_date " +
+                    "FROM travel_reviews WHERE hotelid = ? " +
+                    "ORDER BY submission_date DESC " +
                     "LIMIT ? OFFSET ?";
+
+    // selects the subset of reviews for pagination by hotelid, with text fetched for that page only
+    public static final String SELECT_PAGE_REVIEWS_WITH_TEXT_BY_ID =
+            "SELECT HEX(page.reviewid) AS reviewid, page.hotelid, page.username, page.rating, page.title, " +
+                    "travel_review_text.body, page.submission_date " +
+                    "FROM (SELECT reviewid, hotelid, username, rating, title, submission_date " +
+                    "FROM travel_reviews WHERE hotelid = ? " +
+                    "ORDER BY submission_date DESC " +
+                    "LIMIT ? OFFSET ?) AS page " +
+                    "LEFT JOIN travel_review_text ON travel_review_text.reviewid = page.reviewid " +
+                    "ORDER BY page.submission_date DESC";
+
+    // selects every review with its text for a given hotelid, for streaming exports
+    public static final String SELECT_EXPORT_REVIEWS_BY_ID =
+            "SELECT HEX(travel_reviews.reviewid) AS reviewid, travel_reviews.hotelid, travel_reviews.username, " +
+                    "travel_reviews.rating, travel_reviews.title, travel_review_text.body, " +
+                    "travel_reviews.submission_date " +
+                    "FROM travel_reviews " +
+                    "LEFT JOIN travel_review_text ON travel_review_text.reviewid = travel_reviews.reviewid " +
+                    "WHERE travel_reviews.hotelid = ?";
+
+    // selects every review with its text, for streaming exports
+    public static final String SELECT_EXPORT_REVIEWS =
+            "SELECT HEX(travel_reviews.reviewid) AS reviewid, travel_reviews.hotelid, travel_reviews.username, " +
+                    "travel_reviews.rating, travel_reviews.title, travel_review_text.body, " +
+                    "travel_reviews.submission_date " +
+                    "FROM travel_reviews " +
+                    "LEFT JOIN travel_review_text ON travel_review_text.reviewid = travel_reviews.reviewid";
 }
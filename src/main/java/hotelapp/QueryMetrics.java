@@ -0,0 +1,259 @@
+package hotelapp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times every statement run through an instrumented connection and keeps
+ * per statement latency histograms, row counts and error counts. Statements
+ * slower than a threshold are written to the slow query log.
+ */
+public class QueryMetrics {
+    // parameters that hold password hashes or salts, by statement name
+    private static final Map<String, Set<Integer>> REDACTED_PARAMS = Map.of(
+            "INSERT_USER", Set.of(2, 3),
+            "AUTHENTICATE_USER", Set.of(2));
+
+    private final long slowQueryNanos;
+    private final Map<String, String> statementNames; // sql -> PreparedStatements constant name
+    private final Map<String, StatementStats> stats;
+    private final LatencyHistogram connectionWait;
+    private final AtomicLong connectionErrors;
+    private final Logger slowQueryLog = LogManager.getLogger("SlowQueryLog");
+
+    /** Latency histogram, row count and error count for one statement */
+    public static class StatementStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+
+    /**
+     * Constructor for QueryMetrics
+     * @param slowQueryMillis statements at least this slow go to the slow query log
+     */
+    public QueryMetrics(long slowQueryMillis) {
+        this.slowQueryNanos = slowQueryMillis * 1_000_000;
+        this.statementNames = findStatementNames();
+        this.stats = new ConcurrentHashMap<>();
+        this.connectionWait = new LatencyHistogram();
+        this.connectionErrors = new AtomicLong();
+    }
+
+    /**
+     * Maps each sql string in PreparedStatements to the name of its constant
+     * @return map of sql to constant name
+     */
+    private static Map<String, String> findStatementNames() {
+        Map<String, String> names = new HashMap<>();
+        for (Field field : PreparedStatements.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    names.put((String) field.get(null), field.getName());
+                } catch (IllegalAccessException e) {
+                    System.out.println(e);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Records how long it took to get a connection
+     * @param nanos time spent waiting in nanoseconds
+     * @param failed true if no connection was made
+     */
+    public void recordConnectionWait(long nanos, boolean failed) {
+        connectionWait.record(nanos);
+        if (failed) connectionErrors.incrementAndGet();
+    }
+
+    /**
+     * Wraps a connection so every statement made from it is timed
+     * @param connection database connection
+     * @return instrumented connection
+     */
+    public Connection instrument(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement && args != null && args[0] instanceof String) {
+                        return wrapStatement(PreparedStatement.class, (PreparedStatement) result, (String) args[0]);
+                    } else if (result instanceof Statement && method.getName().equals("createStatement")) {
+                        return wrapStatement(Statement.class, (Statement) result, null);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Returns a snapshot of statement stats keyed by statement name
+     * @return sorted map of statement name to stats
+     */
+    public Map<String, StatementStats> getStatementStats() {
+        return new TreeMap<>(stats);
+    }
+
+    public LatencyHistogram getConnectionWait() {
+        return connectionWait;
+    }
+
+    public long getConnectionErrors() {
+        return connectionErrors.get();
+    }
+
+    /**
+     * Wraps a statement so executions are timed and bound parameters are remembered
+     * @param type statement interface to expose
+     * @param statement statement to wrap
+     * @param sql sql the statement was prepared with, null for plain statements
+     * @return instrumented statement
+     */
+    private <T extends Statement> T wrapStatement(Class<T> type, T statement, String sql) {
+        Map<Integer, Object> params = new TreeMap<>();
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                params.put((Integer) args[0], args[1]);
+            } else if (name.equals("clearParameters")) {
+                params.clear();
+            } else if (name.startsWith("execute")) {
+                String executedSql = sql != null ? sql : (args != null && args[0] instanceof String ? (String) args[0] : "");
+                return execute(statement, method, args, statementName(executedSql), params);
+            }
+            return invoke(statement, method, args);
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Runs and times a statement execution, then records latency, rows and errors
+     * @param statement statement to run
+     * @param method execute method
+     * @param args execute arguments
+     * @param name statement name
+     * @param params bound parameters for the slow query log
+     * @return execution result, result sets are wrapped to count rows
+     * @throws Throwable whatever the statement threw
+     */
+    private Object execute(Statement statement, Method method, Object[] args,
+                           String name, Map<Integer, Object> params) throws Throwable {
+        StatementStats statementStats = stats.computeIfAbsent(name, k -> new StatementStats());
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = invoke(statement, method, args);
+        } catch (SQLException e) {
+            statementStats.errors.incrementAndGet();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            statementStats.latency.record(elapsed);
+            if (elapsed >= slowQueryNanos) {
+                slowQueryLog.warn(name + " took " + elapsed / 1_000_000 + " ms with parameters " + redact(name, params));
+            }
+        }
+
+        if (result instanceof ResultSet) {
+            return wrapResultSet((ResultSet) result, statementStats);
+        } else if (result instanceof Integer || result instanceof Long) {
+            statementStats.rows.addAndGet(((Number) result).longValue());
+        } else if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                if (count > 0) statementStats.rows.addAndGet(count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wraps a result set so returned rows are counted as they are read
+     * @param results result set to wrap
+     * @param statementStats stats to add rows to
+     * @return instrumented result set
+     */
+    private ResultSet wrapResultSet(ResultSet results, StatementStats statementStats) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+                    Object result = invoke(results, method, args);
+                    if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                        statementStats.rows.incrementAndGet();
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Finds the PreparedStatements constant name for a sql string
+     * @param sql sql string
+     * @return constant name, or the start of the sql if it is not a known constant
+     */
+    private String statementName(String sql) {
+        String name = statementNames.get(sql);
+        if (name != null) {
+            return name;
+        }
+        return sql.length() > 40 ? sql.substring(0, 40) : sql;
+    }
+
+    /**
+     * Formats bound parameters with password hashes and salts hidden
+     * @param name statement name
+     * @param params bound parameters by index
+     * @return printable parameters
+     */
+    private String redact(String name, Map<Integer, Object> params) {
+        Set<Integer> redacted = REDACTED_PARAMS.getOrDefault(name, Set.of());
+        Map<Integer, Object> printable = new TreeMap<>();
+        for (Map.Entry<Integer, Object> entry : params.entrySet()) {
+            printable.put(entry.getKey(), redacted.contains(entry.getKey()) ? "***" : entry.getValue());
+        }
+        return printable.toString();
+    }
+
+    /**
+     * Calls a method on the wrapped object and rethrows what it threw
+     * @param target wrapped object
+     * @param method method to call
+     * @param args method arguments
+     * @return method result
+     * @throws Throwable whatever the method threw
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Picks database hosts for reads and writes across a primary and its read replicas */
+public class ReplicaRouter {
+    private static final int MAX_STICKY_USERS = 10000; // prune expired sticky users past this size
+
+    private final String primary;
+    private final List<String> replicas;
+    private final long ejectMillis;   // how long a failed replica is left out of rotation
+    private final long stickyMillis;  // how long a user's reads stay on the primary after a write
+    private final Map<String, Long> ejectedUntil;
+    private final Map<String, Long> lastWrites;
+    private final AtomicInteger next;
+
+    /**
+     * Constructor for ReplicaRouter
+     * @param primary primary host that takes all writes
+     * @param replicas read replica hosts, may be empty
+     * @param ejectMillis how long a failed replica is ejected for
+     * @param stickyMillis how long reads stick to the primary after a user writes
+     */
+    public ReplicaRouter(String primary, List<String> replicas, long ejectMillis, long stickyMillis) {
+        this.primary = primary;
+        this.replicas = new ArrayList<>(replicas);
+        this.ejectMillis = ejectMillis;
+        this.stickyMillis = stickyMillis;
+        this.ejectedUntil = new ConcurrentHashMap<>();
+        this.lastWrites = new ConcurrentHashMap<>();
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * Returns the host that takes writes
+     * @return primary host
+     */
+    public String getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Picks a host for a read, round robin over healthy replicas. Reads go to the
+     * primary if there are no healthy replicas or the user wrote recently.
+     * @param username user the read is for, may be null
+     * @return host to read from
+     */
+    public String readHost(String username) {
+        if (replicas.isEmpty() || isSticky(username)) {
+            return primary;
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < replicas.size(); i++) {
+            String replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            Long until = ejectedUntil.get(replica);
+            if (until == null || until <= now) {
+                return replica;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * Records that a user just wrote so their reads go to the primary for a while
+     * @param username username
+     */
+    public void markWrite(String username) {
+        if (username == null || replicas.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        lastWrites.put(username, now);
+        if (lastWrites.size() > MAX_STICKY_USERS) {
+            lastWrites.values().removeIf(time -> now - time > stickyMillis);
+        }
+    }
+
+    /**
+     * Takes a replica out of rotation after it failed
+     * @param host replica host
+     */
+    public void markFailure(String host) {
+        if (!host.equals(primary)) {
+            System.out.println("Ejecting read replica " + host + " for " + ejectMillis + " ms");
+            ejectedUntil.put(host, System.currentTimeMillis() + ejectMillis);
+        }
+    }
+
+    /**
+     * Checks if a user's reads should still go to the primary
+     * @param username username
+     * @return true if the user wrote within the sticky window
+     */
+    private boolean isSticky(String username) {
+        if (username == null) {
+            return false;
+        }
+
+        Long lastWrite = lastWrites.get(username);
+        if (lastWrite == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - lastWrite > stickyMillis) {
+            lastWrites.remove(username, lastWrite);
+            return false;
+        }
+        return true;
+    }
+}
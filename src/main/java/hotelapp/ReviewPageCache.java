@@ -0,0 +1,230 @@
+package hotelapp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size bounded LRU cache of review pages, counts and ratings, grouped by hotel.
+ * Each hotel has a version that every review write bumps. A reader takes the
+ * version before it queries and its result is only cached if the version has
+ * not moved since, so a page read before a write can never be cached after it.
+ */
+public class ReviewPageCache {
+    private static final int ENTRY_OVERHEAD = 96;  // rough bytes for the entry, key and map node
+    private static final int REVIEW_OVERHEAD = 120; // rough bytes for a Review and its strings
+
+    private final long maxBytes;
+    private final long settleMillis;
+    private final LinkedHashMap<String, Entry> entries; // access ordered, eldest is least recently used
+    private final Map<String, Set<String>> keysByHotel;
+    private final Map<String, Long> versions;
+    private final Map<String, Long> invalidatedAt;
+    private long bytes;
+
+    // metrics
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long rejectedPuts;
+
+    /** A cached value with its hotel and estimated size */
+    private static class Entry {
+        private final String hotelid;
+        private final Object value;
+        private final long bytes;
+
+        private Entry(String hotelid, Object value, long bytes) {
+            this.hotelid = hotelid;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructor for ReviewPageCache
+     * @param maxBytes estimated memory the cache may use
+     * @param settleMillis time after a write during which results are not cached,
+     *                     covers replicas that have not applied the write yet
+     */
+    public ReviewPageCache(long maxBytes, long settleMillis) {
+        this.maxBytes = maxBytes;
+        this.settleMillis = settleMillis;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+        this.keysByHotel = new HashMap<>();
+        this.versions = new HashMap<>();
+        this.invalidatedAt = new HashMap<>();
+    }
+
+    /**
+     * Returns the current version of a hotel's reviews, take this before querying
+     * @param hotelid hotel id
+     * @return version
+     */
+    public synchronized long version(String hotelid) {
+        return versions.getOrDefault(hotelid, 0L);
+    }
+
+    /**
+     * Looks up a cached value
+     * @param hotelid hotel id
+     * @param key what is cached for the hotel, for example a page
+     * @param type expected value type
+     * @return cached value, null on a miss
+     */
+    public synchronized <T> T get(String hotelid, String key, Class<T> type) {
+        Entry entry = entries.get(hotelid + "|" + key);
+        if (entry == null || !type.isInstance(entry.value)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Caches a value if the hotel's reviews have not changed since version was taken
+     * @param hotelid hotel id
+     * @param version version taken before the value was read
+     * @param key what is cached for the hotel
+     * @param value value to cache
+     * @return true if the value is current, read under the latest version and outside the
+     * settle window, even if it was too large to keep
+     */
+    public synchronized boolean put(String hotelid, long version, String key, Object value) {
+        if (version != version(hotelid)) {
+            rejectedPuts++;
+            return false;
+        }
+        Long invalidated = invalidatedAt.get(hotelid);
+        if (invalidated != null) {
+            if (System.currentTimeMillis() - invalidated < settleMillis) {
+                rejectedPuts++;
+                return false;
+            }
+            invalidatedAt.remove(hotelid);
+        }
+
+        String fullKey = hotelid + "|" + key;
+        Entry entry = new Entry(hotelid, value, estimateBytes(fullKey, value));
+        if (entry.bytes > maxBytes) {
+            return true;
+        }
+        remove(fullKey);
+        entries.put(fullKey, entry);
+        keysByHotel.computeIfAbsent(hotelid, k -> new HashSet<>()).add(fullKey);
+        bytes += entry.bytes;
+
+        // drop least recently used entries until back under the limit
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            evictions++;
+        }
+        return true;
+    }
+
+    /**
+     * Drops everything cached for a hotel and bumps its version, call after
+     * a write to the hotel's reviews has committed
+     * @param hotelid hotel id
+     */
+    public synchronized void invalidate(String hotelid) {
+        versions.merge(hotelid, 1L, Long::sum);
+        if (settleMillis > 0) {
+            invalidatedAt.put(hotelid, System.currentTimeMillis());
+        }
+        Set<String> keys = keysByHotel.remove(hotelid);
+        if (keys != null) {
+            for (String key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null) bytes -= entry.bytes;
+            }
+        }
+        invalidations++;
+    }
+
+    /**
+     * Removes one entry if present
+     * @param fullKey hotel and key
+     */
+    private void remove(String fullKey) {
+        Entry entry = entries.remove(fullKey);
+        if (entry != null) {
+            forget(fullKey, entry);
+        }
+    }
+
+    /**
+     * Updates the size and hotel index for an entry that left the map
+     * @param fullKey hotel and key
+     * @param entry removed entry
+     */
+    private void forget(String fullKey, Entry entry) {
+        bytes -= entry.bytes;
+        Set<String> keys = keysByHotel.get(entry.hotelid);
+        if (keys != null) {
+            keys.remove(fullKey);
+            if (keys.isEmpty()) keysByHotel.remove(entry.hotelid);
+        }
+    }
+
+    /**
+     * Roughly estimates the memory held by a cached value
+     * @param fullKey cache key
+     * @param value cached value
+     * @return estimated bytes
+     */
+    private static long estimateBytes(String fullKey, Object value) {
+        long size = ENTRY_OVERHEAD + 2L * fullKey.length();
+        List<Review> reviews = value instanceof HotelPage ? ((HotelPage) value).getReviews() : List.of();
+        for (Review review : reviews) {
+            size += REVIEW_OVERHEAD + 2L * (length(review.getReviewid()) + length(review.getUsername())
+                    + length(review.getTitle()) + length(review.getText()) + length(review.getSubmissionDate()));
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized long getRejectedPuts() {
+        return rejectedPuts;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -14,6 +14,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -148,7 +149,7 @@ public class ReviewParser {
                 JsonObject hotelObj = jeR.getAsJsonObject();
 
                 // grab relevant data
-                String reviewid = hotelObj.get("reviewId").getAsString();
+                String sourceId = hotelObj.get("reviewId").getAsString();
                 String hotelid = hotelObj.get("hotelId").getAsString();
                 String username = hotelObj.get("userNickname").getAsString();
                 String rating = hotelObj.get("ratingOverall").getAsString();
@@ -160,6 +161,9 @@ public class ReviewParser {
                 DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
                 LocalDateTime submissionDate = LocalDateTime.parse(dateStr, formatter);
 
+                // time ordered id derived from the source id so reloading gives the same id
+                String reviewid = IdGenerator.fromTime(submissionDate.toInstant(ZoneOffset.UTC).toEpochMilli(), sourceId);
+
                 // only register user and add review if username is valid
                 if (username.matches("[a-zA-Z0-9_]{3,16}")) {
                     users.add(username);
@@ -0,0 +1,71 @@
+package hotelapp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Consistent hash ring that maps hotel ids to review shard hosts */
+public class ShardRing {
+    private static final int VIRTUAL_NODES = 64; // points on the ring per shard, evens out the spread
+
+    private final List<String> shards;
+    private final TreeMap<Long, String> ring;
+
+    /**
+     * Constructor for ShardRing
+     * @param shards shard hosts, must not be empty
+     */
+    public ShardRing(List<String> shards) {
+        this.shards = new ArrayList<>(shards);
+        this.ring = new TreeMap<>();
+        for (String shard : shards) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    /**
+     * Finds the shard that owns a given hotel's reviews
+     * @param hotelid hotel id
+     * @return shard host
+     */
+    public String shardFor(String hotelid) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(hotelid));
+        if (entry == null) {
+            entry = ring.firstEntry(); // wrap around the ring
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Returns all shard hosts
+     * @return list of shard hosts
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * Hashes a key to a position on the ring
+     * @param key key to hash
+     * @return position on the ring
+     */
+    private long hash(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package hotelapp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class for compressing review text. Uses the same layout as MySQL's
+ * COMPRESS(): a 4 byte little endian length followed by a zlib stream, so rows
+ * written here and rows migrated with COMPRESS() read back the same way.
+ */
+public class TextCompressor {
+
+    /**
+     * Compresses a string
+     * @param text text to compress
+     * @return compressed bytes, empty for empty text
+     */
+    public static byte[] compress(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length == 0) {
+            return new byte[0];
+        }
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(raw.length).array();
+        out.write(length, 0, length.length);
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses bytes written by compress or by MySQL's COMPRESS()
+     * @param compressed compressed bytes, may be null
+     * @return text, null if compressed is null
+     */
+    public static String decompress(byte[] compressed) {
+        if (compressed == null) {
+            return null;
+        }
+        if (compressed.length < 4) {
+            return "";
+        }
+
+        int length = ByteBuffer.wrap(compressed, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed, 4, compressed.length - 4);
+        byte[] raw = new byte[length];
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break; // truncated stream
+                }
+                read += n;
+            }
+            return new String(raw, 0, read, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            System.out.println("Could not decompress review text: " + e);
+            return "";
+        } finally {
+            inflater.end();
+        }
+    }
+}
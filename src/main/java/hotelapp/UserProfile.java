@@ -0,0 +1,93 @@
+package hotelapp;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Per session copy of the facts about a user that only change through the
+ * user's own actions: their previous login time and their favorite hotels.
+ * Favorite hotel ids are kept as a sorted int array.
+ */
+public class UserProfile {
+    private final String lastLogin;
+    private int[] favorites; // sorted hotel ids
+    private int size;
+
+    /**
+     * Constructor for UserProfile
+     * @param lastLogin last login time before this session, may be null
+     * @param favoriteIds ids of the user's favorite hotels
+     */
+    public UserProfile(String lastLogin, Collection<Integer> favoriteIds) {
+        this.lastLogin = lastLogin;
+        setFavorites(favoriteIds);
+    }
+
+    public String getLastLogin() {
+        return lastLogin;
+    }
+
+    /**
+     * Checks if a hotel is one of the user's favorites
+     * @param hotelid hotel id
+     * @return true if favorited, false otherwise
+     */
+    public synchronized boolean isFavorite(String hotelid) {
+        Integer id = HotelCatalog.parseId(hotelid);
+        return id != null && Arrays.binarySearch(favorites, 0, size, id) >= 0;
+    }
+
+    /**
+     * Adds a favorite hotel
+     * @param hotelid hotel id
+     */
+    public synchronized void addFavorite(String hotelid) {
+        Integer id = HotelCatalog.parseId(hotelid);
+        if (id == null) {
+            return;
+        }
+        int i = Arrays.binarySearch(favorites, 0, size, id);
+        if (i >= 0) {
+            return;
+        }
+
+        int insert = -i - 1;
+        if (size == favorites.length) {
+            favorites = Arrays.copyOf(favorites, Math.max(8, size * 2));
+        }
+        System.arraycopy(favorites, insert, favorites, insert + 1, size - insert);
+        favorites[insert] = id;
+        size++;
+    }
+
+    /**
+     * Removes a favorite hotel
+     * @param hotelid hotel id
+     */
+    public synchronized void removeFavorite(String hotelid) {
+        Integer id = HotelCatalog.parseId(hotelid);
+        if (id == null) {
+            return;
+        }
+        int i = Arrays.binarySearch(favorites, 0, size, id);
+        if (i >= 0) {
+            System.arraycopy(favorites, i + 1, favorites, i, size - i - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Replaces the favorite hotels, for example with a fresh list from the database
+     * @param favoriteIds ids of the user's favorite hotels
+     */
+    public synchronized void setFavorites(Collection<Integer> favoriteIds) {
+        favorites = favoriteIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        size = favorites.length;
+    }
+
+    /** Removes every favorite hotel */
+    public synchronized void clearFavorites() {
+        favorites = new int[0];
+        size = 0;
+    }
+}
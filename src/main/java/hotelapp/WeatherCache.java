@@ -0,0 +1,331 @@
+package hotelapp;
+
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches current weather by rounded coordinates. Hotels that round to the same
+ * spot share an entry, concurrent misses for a spot share one fetch, and an
+ * expired entry is still served while a single background refresh runs.
+ * Lookups return futures so callers never hold a thread while open-meteo answers.
+ * Spots that are fetched together, such as a user's favorites or a background
+ * refresh, share one upstream call.
+ */
+public class WeatherCache {
+    private static final int BATCH_SIZE = 50; // spots per upstream call, keeps the url short
+
+    private final WeatherFetcher fetcher;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long fetchTimeoutMillis;
+    private final Map<String, Weather> entries;
+    private final Map<String, CompletableFuture<Weather>> inFlight;
+    private final Map<String, Long> lastRead; // when each spot was last asked for
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger = LogManager.getLogger();
+
+    // metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetchErrors = new AtomicLong();
+    private final AtomicLong batchedSpots = new AtomicLong();
+    private final AtomicLong refreshed = new AtomicLong();
+
+    /** Weather for one spot and when it was fetched */
+    public static class Weather {
+        private final JsonObject current;
+        private final long fetchedAt;
+
+        public Weather(JsonObject current, long fetchedAt) {
+            this.current = current;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public JsonObject getCurrent() {
+            return current;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+    }
+
+    /**
+     * Constructor for WeatherCache
+     * @param fetcher weather fetcher
+     * @param ttlMillis how long fetched weather is fresh
+     * @param staleMillis how long past the ttl old weather may be served while it is refreshed
+     * @param fetchTimeoutMillis how long a request should wait on a fetch when nothing is cached
+     */
+    public WeatherCache(WeatherFetcher fetcher, long ttlMillis, long staleMillis, long fetchTimeoutMillis) {
+        this.fetcher = fetcher;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.fetchTimeoutMillis = fetchTimeoutMillis;
+        this.entries = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
+        this.lastRead = new ConcurrentHashMap<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "weather-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts refreshing, in batches, the spots that were asked for recently
+     * and would expire before the next run
+     * @param periodMillis time between refresh runs
+     */
+    public void startRefresh(long periodMillis) {
+        scheduler.scheduleWithFixedDelay(() -> refresh(periodMillis), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the current weather near a location
+     * @param latitude latitude
+     * @param longitude longitude
+     * @return future for the weather, already complete when it was cached; completes with
+     * null if nothing is cached and the fetch failed
+     */
+    public CompletableFuture<Weather> getWeather(String latitude, String longitude) {
+        String key = round(latitude) + "," + round(longitude);
+        long now = System.currentTimeMillis();
+        lastRead.put(key, now);
+
+        Weather cached = entries.get(key);
+        if (cached != null) {
+            long age = now - cached.getFetchedAt();
+            if (age < ttlMillis) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+            if (age < ttlMillis + staleMillis) {
+                staleHits.incrementAndGet();
+                fetch(List.of(key)); // refresh in the background, answer with what we have
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        misses.incrementAndGet();
+        return fetch(List.of(key)).get(key).exceptionally(e -> {
+            logger.debug("Weather fetch for " + key + " failed: " + e);
+            return cached; // too old to serve normally, but better than nothing
+        });
+    }
+
+    /**
+     * Fetches the weather for many locations, one upstream call covers every
+     * spot that is missing or expired
+     * @param locations latitude and longitude pairs
+     * @return number of spots fetched
+     */
+    public int prefetch(Collection<String[]> locations) {
+        long now = System.currentTimeMillis();
+        Set<String> keys = new LinkedHashSet<>();
+        for (String[] latlong : locations) {
+            if (latlong == null || latlong[0] == null || latlong[1] == null) {
+                continue;
+            }
+            String key = round(latlong[0]) + "," + round(latlong[1]);
+            lastRead.put(key, now);
+            Weather cached = entries.get(key);
+            if (cached == null || now - cached.getFetchedAt() >= ttlMillis) {
+                keys.add(key);
+            }
+        }
+        if (!keys.isEmpty()) {
+            fetch(keys);
+        }
+        return keys.size();
+    }
+
+    /**
+     * Refetches spots that would expire before the next run and forgets the
+     * ones nobody has asked for since they went stale
+     * @param periodMillis time between refresh runs
+     */
+    private void refresh(long periodMillis) {
+        try {
+            long now = System.currentTimeMillis();
+            List<String> due = new ArrayList<>();
+            for (Map.Entry<String, Weather> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                if (now - lastRead.getOrDefault(key, 0L) > ttlMillis + staleMillis) {
+                    entries.remove(key, entry.getValue());
+                    lastRead.remove(key);
+                } else if (now - entry.getValue().getFetchedAt() >= ttlMillis - periodMillis) {
+                    due.add(key);
+                }
+            }
+            if (!due.isEmpty()) {
+                refreshed.addAndGet(due.size());
+                fetch(due);
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive, the next run tries again
+            logger.warn("Weather refresh failed: " + e);
+        }
+    }
+
+    /**
+     * Starts fetches for spots, joining the ones already running. Spots that are
+     * not running yet are fetched together, BATCH_SIZE per upstream call
+     * @param keys cache keys, rounded "lat,lng"
+     * @return future for each key's fetched weather
+     */
+    private Map<String, CompletableFuture<Weather>> fetch(Collection<String> keys) {
+        Map<String, CompletableFuture<Weather>> futures = new HashMap<>();
+        List<String> started = new ArrayList<>();
+        for (String key : keys) {
+            CompletableFuture<Weather> future = new CompletableFuture<>();
+            CompletableFuture<Weather> running = inFlight.putIfAbsent(key, future);
+            if (running != null) {
+                coalesced.incrementAndGet();
+                futures.put(key, running);
+            } else {
+                futures.put(key, future);
+                started.add(key);
+            }
+        }
+
+        for (int i = 0; i < started.size(); i += BATCH_SIZE) {
+            List<String> batch = started.subList(i, Math.min(i + BATCH_SIZE, started.size()));
+            fetchBatch(batch, futures);
+        }
+        return futures;
+    }
+
+    /**
+     * Fetches a batch of spots in one upstream call and hands each spot its result
+     * @param batch cache keys owned by this call
+     * @param futures futures to complete, by key
+     */
+    private void fetchBatch(List<String> batch, Map<String, CompletableFuture<Weather>> futures) {
+        List<String> latitudes = new ArrayList<>();
+        List<String> longitudes = new ArrayList<>();
+        for (String key : batch) {
+            int comma = key.indexOf(',');
+            latitudes.add(key.substring(0, comma));
+            longitudes.add(key.substring(comma + 1));
+        }
+
+        fetches.incrementAndGet();
+        if (batch.size() > 1) {
+            batchedSpots.addAndGet(batch.size());
+        }
+        // a call that throws instead of failing its future, for example on a bad url, goes through
+        // the same path, so the batch's futures always complete and leave inFlight
+        CompletableFuture<List<JsonObject>> call;
+        try {
+            call = fetcher.getWeather(latitudes, longitudes);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((results, e) -> {
+            long now = System.currentTimeMillis();
+            if (e != null) {
+                fetchErrors.incrementAndGet();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                String key = batch.get(i);
+                CompletableFuture<Weather> future = futures.get(key);
+                try {
+                    JsonObject current = e == null ? results.get(i) : null;
+                    if (current == null) {
+                        future.completeExceptionally(e != null ? e
+                                : new IllegalStateException("no current weather in response for " + key));
+                        continue;
+                    }
+                    Weather weather = new Weather(current, now);
+                    entries.put(key, weather);
+                    future.complete(weather);
+                } finally {
+                    inFlight.remove(key, future);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rounds a coordinate to two decimals, about a kilometer
+     * @param coordinate coordinate as a string
+     * @return rounded coordinate as a string
+     */
+    private static String round(String coordinate) {
+        return String.format(Locale.ROOT, "%.2f", Double.parseDouble(coordinate));
+    }
+
+    /** Stops background fetches and refreshes */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        fetcher.shutdown();
+    }
+
+    public long getFetchTimeoutMillis() {
+        return fetchTimeoutMillis;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    public long getFetchRetries() {
+        return fetcher.getRetries();
+    }
+
+    public long getFetchErrors() {
+        return fetchErrors.get();
+    }
+
+    public long getBatchedSpots() {
+        return batchedSpots.get();
+    }
+
+    public long getRefreshed() {
+        return refreshed.get();
+    }
+
+    public int getEntries() {
+        return entries.size();
+    }
+}
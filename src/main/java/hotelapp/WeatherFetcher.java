@@ -2,96 +2,213 @@ package hotelapp;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
-import java.io.*;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Fetches current weather from open-meteo. One HttpClient is shared by every
+ * call, so connections (HTTP/2 where the server offers it) are kept alive and
+ * reused instead of paying a TLS handshake per lookup. Many locations can be
+ * fetched in one call. Failed calls are retried with exponential backoff.
+ */
 public class WeatherFetcher {
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    // metrics
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Constructor for WeatherFetcher
+     * @param baseUrl forecast endpoint, for example https://api.open-meteo.com/v1/forecast or a local stub
+     * @param connectTimeoutMillis how long to wait for a new connection
+     * @param requestTimeoutMillis how long to wait for one response
+     * @param maxRetries times a failed call is retried
+     * @param backoffMillis wait before the first retry, doubled for each one after
+     */
+    public WeatherFetcher(String baseUrl, long connectTimeoutMillis, long requestTimeoutMillis,
+                          int maxRetries, long backoffMillis) {
+        this.baseUrl = baseUrl;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "weather-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .executor(executor)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+    }
 
     /**
-     * Sends GET request to open-mateo's server and parses weather
-     * from the servers response for a specified latitude and longitude
+     * Sends GET request to open-mateo's server and parses weather from the
+     * servers response for a specified latitude and longitude. No thread
+     * waits on the server while the request is in flight
      * @param latitude latitude
      * @param longitude longitude
-     * @return JSON object
+     * @return future for the current_weather JSON object, null if the response had none
      */
-    public JsonObject getWeather(String latitude, String longitude) {
-        String serverResponse = callAPI(latitude, longitude);
+    public CompletableFuture<JsonObject> getWeather(String latitude, String longitude) {
+        return getWeather(List.of(latitude), List.of(longitude)).thenApply(list -> list.get(0));
+    }
 
-        // parses weather from server response
-        serverResponse = serverResponse.substring(serverResponse.indexOf('{'), serverResponse.length() - 1);
-        JsonParser parser = new JsonParser();
-        JsonObject jo = (JsonObject) parser.parse(serverResponse);
-        JsonObject weatherObj = jo.getAsJsonObject("current_weather");
+    /**
+     * Fetches current weather for many locations in one request, open-meteo
+     * takes comma separated coordinates and answers with one result per location
+     * @param latitudes latitudes
+     * @param longitudes longitudes, in the same order
+     * @return future for the current_weather JSON objects in the same order, an
+     * element is null if its result had none
+     */
+    public CompletableFuture<List<JsonObject>> getWeather(List<String> latitudes, List<String> longitudes) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "?latitude=" + String.join(",", latitudes)
+                        + "&longitude=" + String.join(",", longitudes) + "&current_weather=true"))
+                .timeout(requestTimeout)
+                .GET()
+                .build();
+        int count = latitudes.size();
+        return send(request, 0).thenApply(results -> {
+            if (results.size() != count) {
+                throw new IllegalStateException("open-meteo answered " + results.size() + " of " + count + " locations");
+            }
+            return results;
+        });
+    }
 
-        return weatherObj;
+    /**
+     * Sends a request, retrying failures and 429 or 5xx answers after a backoff
+     * @param request request to send
+     * @param attempt retries made so far
+     * @return future for the current_weather JSON objects
+     */
+    private CompletableFuture<List<JsonObject>> send(HttpRequest request, int attempt) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(this::parse, executor)
+                .handle((results, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(results);
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (attempt >= maxRetries || !retryable(cause)) {
+                        return CompletableFuture.<List<JsonObject>>failedFuture(cause);
+                    }
+
+                    // exponential backoff with jitter so retries from many requests spread out
+                    retries.incrementAndGet();
+                    long delay = (backoffMillis << attempt) + ThreadLocalRandom.current().nextLong(backoffMillis + 1);
+                    return CompletableFuture.supplyAsync(() -> null,
+                            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor))
+                            .thenCompose(ignored -> send(request, attempt + 1));
+                })
+                .thenCompose(future -> future);
     }
 
     /**
-     * Creates a secure socket to communicate with open-mateos's server,
-     * sends a GET request, and gets a response as a string
-     * source ~ http://www.jguru.com/faq/view.jsp?EID=32388
-     * @return server's response as a string
+     * Reads current_weather out of a response body as it streams in, the
+     * rest of the document is skipped without being built. A single location
+     * is answered with an object, several with an array of them
+     * @param response response with the body as a stream
+     * @return current_weather JSON objects, an element is null if its result had none
      */
-    private String callAPI(String latitude, String longitude) {
-        String urlString = "https://api.open-meteo.com/v1/forecast?latitude=" + latitude + "&longitude=" + longitude + "&current_weather=true";
-        StringBuilder sb = new StringBuilder();
-
-        SSLSocket socket = null;
-        PrintWriter out = null;
-        BufferedReader in = null;
-        try {
-            // create socket connection for url
-            URL url = new URL(urlString);
-            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-            socket = (SSLSocket) factory.createSocket(url.getHost(), 443); // HTTPS uses port 443
-
-            // output stream for the socket
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
-            String request = getRequest(url.getHost(), url.getPath() + "?"+ url.getQuery());
-
-            // send a request to the server and empty the buffer
-            out.println(request);
-            out.flush();
-
-            // input stream for the socket
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            // use input stream to read server's response
-            String line;
-            while ((line = in.readLine()) != null) {
-                sb.append(line);
+    private List<JsonObject> parse(HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new StatusException(response.statusCode());
             }
-        } catch (IOException e) {
-            System.out.println("IOException while writing or reading from the socket stream: " + e);
-        } finally {
-            try {
-                if (out != null) out.close();
-                if (in != null) in.close();
-                if (socket != null) socket.close();
-            } catch (IOException e) {
-                System.out.println("IOException when trying to close the streams or socket: " + e);
+            JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            List<JsonObject> results = new ArrayList<>();
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    results.add(readCurrent(reader));
+                }
+                reader.endArray();
+            } else {
+                results.add(readCurrent(reader));
             }
+            return results;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        // convert server response to string
-        return sb.toString();
+    /**
+     * Reads one location's result and keeps only its current weather
+     * @param reader reader positioned at the result object
+     * @return current_weather JSON object, null if the result had none
+     * @throws IOException if the body can not be read or is not JSON
+     */
+    private JsonObject readCurrent(JsonReader reader) throws IOException {
+        JsonObject current = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("current_weather")) {
+                current = new JsonParser().parse(reader).getAsJsonObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return current;
     }
 
     /**
-     * Takes a host and a string containing path/resource/query
-     * and creates a string of the HTTP GET request
-     * @param host url of host for request
-     * @param pathResourceQuery path + resource + query for request
-     * @return request as string
+     * Decides if a failed call is worth another try
+     * @param cause failure
+     * @return true for network errors, timeouts, 429 and 5xx
      */
-    private String getRequest(String host, String pathResourceQuery) {
-        String request = "GET " + pathResourceQuery + " HTTP/1.1" + System.lineSeparator() // GET request
-                + "Host: " + host + System.lineSeparator()      // host header required for HTTP/1.1
-                + "Connection: close" + System.lineSeparator()  // close connection after we fetch page
-                + System.lineSeparator();
-        return request;
+    private static boolean retryable(Throwable cause) {
+        if (cause instanceof StatusException) {
+            int status = ((StatusException) cause).status;
+            return status == 429 || status >= 500;
+        }
+        return cause instanceof IOException || cause instanceof UncheckedIOException;
+    }
+
+    /** A response other than 200 from open-meteo */
+    private static class StatusException extends RuntimeException {
+        private final int status;
+
+        private StatusException(int status) {
+            super("open-meteo answered " + status);
+            this.status = status;
+        }
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /** Stops the threads that complete requests */
+    public void shutdown() {
+        executor.shutdownNow();
     }
 }
@@ -0,0 +1,219 @@
+package hotelapp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many database connections each kind of work may hold at once, so
+ * bulk ingest and background maintenance can never take the connections page
+ * requests need. Ingest is also slowed down while interactive p95 latency is
+ * over budget, and sped back up once it recovers.
+ */
+public class WorkloadGate {
+    private static final long WINDOW_MILLIS = 5000; // interactive latency is judged per window
+    private static final long MIN_INGEST_DELAY_MILLIS = 10;
+
+    /** Kinds of database work, each with its own permits */
+    public enum Workload {
+        INTERACTIVE, // page and ajax requests
+        INGEST,      // bulk hotel, user and review loads
+        MAINTENANCE, // retention purges and user requested deletes
+        EXPORT       // review exports, paced by the client reading them
+    }
+
+    private final Map<Workload, Semaphore> permits;
+    private final Map<Workload, Integer> limits;
+    private final long interactiveWaitMillis;
+    private final long exportWaitMillis;
+    private final double budgetMillis;
+    private final long maxIngestDelayMillis;
+    private final Logger logger = LogManager.getLogger();
+
+    // interactive latency window and the ingest delay it drives
+    private LatencyHistogram window;
+    private long windowStart;
+    private volatile double lastInteractiveP95;
+    private volatile long ingestDelayMillis;
+    private volatile long throttledWindows;
+
+    /**
+     * Constructor for WorkloadGate
+     * @param limits max connections held at once by each workload
+     * @param interactiveWaitMillis how long an interactive request waits for a permit before failing
+     * @param exportWaitMillis how long an export waits for a permit before failing
+     * @param budgetMillis interactive p95 budget in milliseconds
+     * @param maxIngestDelayMillis longest pause added before each ingest connection
+     */
+    public WorkloadGate(Map<Workload, Integer> limits, long interactiveWaitMillis, long exportWaitMillis,
+                        double budgetMillis, long maxIngestDelayMillis) {
+        this.limits = new EnumMap<>(limits);
+        this.permits = new EnumMap<>(Workload.class);
+        for (Workload workload : Workload.values()) {
+            permits.put(workload, new Semaphore(limits.get(workload), true));
+        }
+        this.interactiveWaitMillis = interactiveWaitMillis;
+        this.exportWaitMillis = exportWaitMillis;
+        this.budgetMillis = budgetMillis;
+        this.maxIngestDelayMillis = maxIngestDelayMillis;
+        this.window = new LatencyHistogram();
+        this.windowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits for a permit for the given workload. Interactive work and exports fail
+     * after a short wait instead of queueing forever, ingest first pauses while it
+     * is being throttled.
+     * @param workload kind of work
+     * @throws SQLException if no permit could be had
+     */
+    public void acquire(Workload workload) throws SQLException {
+        Semaphore semaphore = permits.get(workload);
+        try {
+            if (workload == Workload.INTERACTIVE) {
+                if (!semaphore.tryAcquire(interactiveWaitMillis, TimeUnit.MILLISECONDS)) {
+                    throw new SQLTransientConnectionException("No interactive database connection free after "
+                            + interactiveWaitMillis + " ms");
+                }
+                return;
+            }
+
+            if (workload == Workload.EXPORT) {
+                if (!semaphore.tryAcquire(exportWaitMillis, TimeUnit.MILLISECONDS)) {
+                    throw new SQLTransientConnectionException("No export database connection free after "
+                            + exportWaitMillis + " ms");
+                }
+                return;
+            }
+
+            if (workload == Workload.INGEST) {
+                rollWindow();
+                long delay = ingestDelayMillis;
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+            }
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a " + workload + " connection");
+        }
+    }
+
+    /**
+     * Wraps a connection so closing it gives back the permit, and so interactive
+     * connections report how long they were held
+     * @param connection connection opened after acquire
+     * @param workload kind of work the permit was taken for
+     * @return connection that releases its permit on close
+     */
+    public Connection wrap(Connection connection, Workload workload) {
+        long start = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                        try {
+                            connection.close();
+                        } finally {
+                            release(workload);
+                            if (workload == Workload.INTERACTIVE) {
+                                recordInteractive(System.nanoTime() - start);
+                            }
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Gives back a permit
+     * @param workload kind of work the permit was taken for
+     */
+    public void release(Workload workload) {
+        permits.get(workload).release();
+    }
+
+    /**
+     * Adds how long an interactive connection was held to the current window
+     * @param heldNanos time held in nanoseconds
+     */
+    private void recordInteractive(long heldNanos) {
+        synchronized (this) {
+            window.record(heldNanos);
+        }
+        rollWindow();
+    }
+
+    /**
+     * Closes the latency window once it is old enough and adjusts the ingest delay:
+     * doubled while interactive p95 is over budget, halved once it is back under
+     */
+    private synchronized void rollWindow() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart < WINDOW_MILLIS) {
+            return;
+        }
+
+        double p95 = window.getPercentileMillis(0.95);
+        boolean overBudget = window.getCount() > 0 && p95 > budgetMillis;
+        long delay = ingestDelayMillis;
+        if (overBudget) {
+            delay = Math.min(maxIngestDelayMillis, Math.max(MIN_INGEST_DELAY_MILLIS, delay * 2));
+            throttledWindows++;
+        } else {
+            delay = delay / 2 < MIN_INGEST_DELAY_MILLIS ? 0 : delay / 2;
+        }
+        if (delay != ingestDelayMillis) {
+            logger.debug("Interactive p95 " + p95 + " ms, ingest delay now " + delay + " ms");
+        }
+
+        ingestDelayMillis = delay;
+        lastInteractiveP95 = p95;
+        window = new LatencyHistogram();
+        windowStart = now;
+    }
+
+    public int getLimit(Workload workload) {
+        return limits.get(workload);
+    }
+
+    public int getInUse(Workload workload) {
+        return limits.get(workload) - permits.get(workload).availablePermits();
+    }
+
+    public int getWaiting(Workload workload) {
+        return permits.get(workload).getQueueLength();
+    }
+
+    public double getLastInteractiveP95() {
+        return lastInteractiveP95;
+    }
+
+    public double getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public long getIngestDelayMillis() {
+        return ingestDelayMillis;
+    }
+
+    public long getThrottledWindows() {
+        return throttledWindows;
+    }
+}
@@ -0,0 +1,295 @@
+package hotelapp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Buffers link clicks and login times that do not need to block a response,
+ * and writes them to the database in batches on a timer or once enough pile up.
+ * A batch that fails to write goes back in the buffer for the next flush, it
+ * still counts towards capacity so the buffer never grows past it
+ */
+public class WriteBehindBuffer {
+    private final HotelDB hotelDB;
+    private final int capacity;   // max buffered writes before callers write directly
+    private final int batchSize;  // buffered writes that trigger an early flush
+    private final ScheduledExecutorService flusher;
+    private final ConcurrentLinkedQueue<LinkClick> linkClicks;
+    private final Map<String, String> loginTimes; // username -> latest login time
+    private final AtomicInteger pending;
+    private final Logger logger = LogManager.getLogger();
+
+    // metrics
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong directWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+
+    /**
+     * Constructor for WriteBehindBuffer
+     * @param hotelDB database handler
+     * @param capacity max buffered writes before callers write directly
+     * @param batchSize buffered writes that trigger an early flush
+     * @param flushIntervalMillis time between timed flushes
+     */
+    public WriteBehindBuffer(HotelDB hotelDB, int capacity, int batchSize, long flushIntervalMillis) {
+        this.hotelDB = hotelDB;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.linkClicks = new ConcurrentLinkedQueue<>();
+        this.loginTimes = new ConcurrentHashMap<>();
+        this.pending = new AtomicInteger();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers a link click, writes it right away if the buffer is full
+     * @param click link click
+     */
+    public void addLinkEvent(LinkClick click) {
+        if (pending.get() >= capacity) {
+            directWrites.incrementAndGet();
+            hotelDB.addLinkEvent(click.getEventid(), click.getExpediaLink(), click.getUsername(),
+                    click.getHotelid(), click.getEventDate());
+            return;
+        }
+
+        linkClicks.add(click);
+        afterAdd(pending.incrementAndGet());
+    }
+
+    /**
+     * Buffers a user's login time, only the latest buffered login time is kept
+     * @param loginTime login time
+     * @param username username
+     */
+    public void setLoginTime(String loginTime, String username) {
+        if (loginTime == null || username == null) {
+            return;
+        }
+        if (pending.get() >= capacity && !loginTimes.containsKey(username)) {
+            directWrites.incrementAndGet();
+            hotelDB.setLoginTime(loginTime, username);
+            return;
+        }
+
+        if (bufferLoginTime(username, loginTime)) {
+            afterAdd(pending.incrementAndGet());
+        }
+    }
+
+    /**
+     * Drops a user's buffered link clicks, call before clearing their history so
+     * the clicks are not written back afterwards. Waits for a running flush, which
+     * puts back clicks that failed to write
+     * @param username username
+     */
+    public synchronized void discardLinkEvents(String username) {
+        int discarded = 0;
+        Iterator<LinkClick> it = linkClicks.iterator();
+        while (it.hasNext()) {
+            if (it.next().getUsername().equals(username)) {
+                it.remove();
+                discarded++;
+            }
+        }
+        pending.addAndGet(-discarded);
+    }
+
+    /**
+     * Writes a user's buffered login time right away, call at login so the last
+     * login read for the new session is not older than one still in the buffer
+     * @param username username
+     */
+    public synchronized void flushLoginTime(String username) {
+        String loginTime = loginTimes.remove(username);
+        if (loginTime == null) {
+            return;
+        }
+        if (hotelDB.setLoginTime(loginTime, username)) {
+            pending.decrementAndGet();
+            flushedWrites.incrementAndGet();
+        } else if (!bufferLoginTime(username, loginTime)) {
+            pending.decrementAndGet(); // another login time was buffered meanwhile
+        }
+    }
+
+    /**
+     * Buffers a login time, keeping the later one if the user already has one buffered
+     * @param username username
+     * @param loginTime login time, ISO local date time so later times sort after earlier ones
+     * @return true if the user had no login time buffered
+     */
+    private boolean bufferLoginTime(String username, String loginTime) {
+        if (loginTimes.putIfAbsent(username, loginTime) == null) {
+            return true;
+        }
+        loginTimes.merge(username, loginTime, (buffered, time) -> buffered.compareTo(time) >= 0 ? buffered : time);
+        return false;
+    }
+
+    /**
+     * Kicks off an early flush once a full batch is buffered
+     * @param buffered number of buffered writes
+     */
+    private void afterAdd(int buffered) {
+        if (buffered == batchSize) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /** Writes everything that is buffered to the database, failed writes are kept for the next flush */
+    public void flush() {
+        flush(true);
+    }
+
+    /**
+     * Writes everything that is buffered to the database
+     * @param retry true to put failed writes back in the buffer, false to drop them
+     */
+    private synchronized void flush(boolean retry) {
+        List<LinkClick> clicks = new ArrayList<>();
+        LinkClick click;
+        while ((click = linkClicks.poll()) != null) {
+            clicks.add(click);
+        }
+
+        Map<String, String> logins = new HashMap<>();
+        for (String username : loginTimes.keySet()) {
+            String loginTime = loginTimes.remove(username);
+            if (loginTime != null) logins.put(username, loginTime);
+        }
+
+        if (clicks.isEmpty() && logins.isEmpty()) {
+            return;
+        }
+
+        // pending only drops once a write has committed
+        long start = System.nanoTime();
+        int written = 0;
+        if (!clicks.isEmpty()) {
+            if (write(() -> hotelDB.addManyLinkEvents(clicks))) {
+                written += clicks.size();
+            } else if (retry) {
+                linkClicks.addAll(clicks);
+            } else {
+                dropped(clicks.size());
+            }
+        }
+        if (!logins.isEmpty()) {
+            if (write(() -> hotelDB.setManyLoginTimes(logins))) {
+                written += logins.size();
+            } else if (retry) {
+                // a login buffered since the drain takes the failed one's place, whichever is later is kept
+                for (Map.Entry<String, String> entry : logins.entrySet()) {
+                    if (!bufferLoginTime(entry.getKey(), entry.getValue())) {
+                        pending.decrementAndGet();
+                    }
+                }
+            } else {
+                dropped(logins.size());
+            }
+        }
+        pending.addAndGet(-written);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastFlushMillis = millis;
+        if (millis > maxFlushMillis) maxFlushMillis = millis;
+        flushCount.incrementAndGet();
+        flushedWrites.addAndGet(written);
+        logger.debug("Flushed " + written + " of " + (clicks.size() + logins.size())
+                + " link events and login times in " + millis + " ms");
+    }
+
+    /**
+     * Runs one batch write, counting and logging a failure
+     * @param write batch write returning true on success
+     * @return true if the batch was written
+     */
+    private boolean write(BooleanSupplier write) {
+        boolean written;
+        try {
+            written = write.getAsBoolean();
+        } catch (RuntimeException e) {
+            logger.error("Write-behind flush failed: " + e);
+            written = false;
+        }
+        if (!written) failedFlushes.incrementAndGet();
+        return written;
+    }
+
+    /**
+     * Gives up on writes that could not be flushed
+     * @param writes number of writes lost
+     */
+    private void dropped(int writes) {
+        pending.addAndGet(-writes);
+        droppedWrites.addAndGet(writes);
+        logger.error("Write-behind dropped " + writes + " writes");
+    }
+
+    /** Stops the timer and flushes whatever is still buffered */
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(false);
+    }
+
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushedWrites() {
+        return flushedWrites.get();
+    }
+
+    public long getDirectWrites() {
+        return directWrites.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public long getDroppedWrites() {
+        return droppedWrites.get();
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+}
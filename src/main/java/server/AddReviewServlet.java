@@ -1,10 +1,10 @@
 package server;
 
 import hotelapp.HotelDB;
+import hotelapp.IdGenerator;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,10 +12,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 public class AddReviewServlet extends HttpServlet {
 
@@ -25,7 +22,6 @@ public class AddReviewServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -54,19 +50,17 @@ public class AddReviewServlet extends HttpServlet {
         }
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
         VelocityContext context = new VelocityContext();
 
-        Template template = ve.getTemplate("static/add-review.html");
+        Template template = templates.getTemplate("static/add-review.html");
         context.put("username", username);
         context.put("hotelSearch", hotelSearch);
         context.put("hotelName", hotelName);
         context.put("hotelid", hotelid);
         context.put("error", error);
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 
     @Override
@@ -97,9 +91,8 @@ public class AddReviewServlet extends HttpServlet {
         String text = request.getParameter("review-text");
         text = StringEscapeUtils.escapeHtml4(text);
 
-        // generate review UUID and date time
-        UUID reviewUUID = UUID.randomUUID();
-        String reviewid = reviewUUID.toString().replaceAll("-", "");
+        // generate time ordered review id and date time
+        String reviewid = IdGenerator.newId();
         LocalDateTime submissionDate = LocalDateTime.now();
 
         // add review to database
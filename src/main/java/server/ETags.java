@@ -0,0 +1,84 @@
+package server;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Validators for conditional GETs. Tags include the time this server started,
+ * so a restart, which also resets the review versions, never reuses a tag.
+ */
+public class ETags {
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Builds a weak entity tag from the values a response was built from
+     * @param parts values the response depends on
+     * @return entity tag, quoted
+     */
+    public static String of(Object... parts) {
+        StringBuilder tag = new StringBuilder("W/\"").append(EPOCH);
+        for (Object part : parts) {
+            tag.append('-').append(part == null ? "" : Integer.toHexString(part.toString().hashCode()));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Sets the validator and cache policy on a response and answers 304 if the
+     * client already holds this version
+     * @param request request, checked for If-None-Match
+     * @param response response to set headers on
+     * @param etag entity tag for the response
+     * @param cacheControl Cache-Control policy
+     * @return true if a 304 was sent and the servlet should stop
+     */
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response,
+                                      String etag, String cacheControl) {
+        tag(response, etag, cacheControl);
+        if (matches(request, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the validator and cache policy on a response
+     * @param response response to set headers on
+     * @param etag entity tag for the response
+     * @param cacheControl Cache-Control policy
+     */
+    public static void tag(HttpServletResponse response, String etag, String cacheControl) {
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", cacheControl);
+    }
+
+    /**
+     * Checks if the client already holds a version
+     * @param request request, checked for If-None-Match
+     * @param etag entity tag of the current version
+     * @return true if If-None-Match names this version
+     */
+    public static boolean matches(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(opaque(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Strips the weak marker, GET uses weak comparison
+     * @param etag entity tag
+     * @return quoted tag without W/
+     */
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
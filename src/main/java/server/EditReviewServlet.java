@@ -1,12 +1,12 @@
 package server;
 
+import hotelapp.AsyncHotelDB;
 import hotelapp.Hotel;
 import hotelapp.HotelDB;
 import hotelapp.Review;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,9 +14,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 
 public class EditReviewServlet extends HttpServlet {
 
@@ -26,7 +25,6 @@ public class EditReviewServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -43,10 +41,16 @@ public class EditReviewServlet extends HttpServlet {
         String error = request.getParameter("error");
         error = StringEscapeUtils.escapeHtml4(error);
 
-        // grab the user's review for hotelid
-        HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
-        Review review = hotelDB.getUserReview(hotelid, username);
-        Hotel hotel = hotelDB.getHotelById(hotelid);
+        // grab the user's review and the hotel for hotelid side by side
+        AsyncHotelDB asyncHotelDB = (AsyncHotelDB) getServletContext().getAttribute("asyncHotelDB");
+        CompletableFuture<Review> reviewFuture = asyncHotelDB.getUserReview(hotelid, username);
+        CompletableFuture<Hotel> hotelFuture = asyncHotelDB.getHotelById(hotelid);
+        Review review = AsyncHotelDB.join(reviewFuture, null);
+        Hotel hotel = AsyncHotelDB.join(hotelFuture, null);
+        if (hotel == null) {
+            response.sendRedirect("/home?error=hotelUnavailable");
+            return;
+        }
         String hotelName = hotel.getName();
 
         // get review data only if original author
@@ -62,10 +66,10 @@ public class EditReviewServlet extends HttpServlet {
         }
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
         VelocityContext context = new VelocityContext();
 
-        Template template = ve.getTemplate("static/edit-review.html");
+        Template template = templates.getTemplate("static/edit-review.html");
         context.put("username", username);
         context.put("hotelSearch", hotelSearch);
         context.put("hotelName", hotelName);
@@ -75,9 +79,7 @@ public class EditReviewServlet extends HttpServlet {
         context.put("editText", editText);
         context.put("error", error);
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 
     @Override
@@ -0,0 +1,140 @@
+package server;
+
+import com.google.gson.stream.JsonWriter;
+import hotelapp.HotelDB;
+import hotelapp.Review;
+import org.apache.commons.text.StringEscapeUtils;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+public class ExportServlet extends HttpServlet {
+
+    private final int CHECK_ROWS = 1000; // rows written between checks for a closed connection
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        // grab session data
+        HttpSession session = request.getSession();
+        String username = (String) session.getAttribute("username");
+
+        // redirect if not logged in
+        if (username == null) {
+            response.sendRedirect("/home");
+            return;
+        }
+
+        // grab and clean parameters, no hotelid exports every hotel
+        String hotelid = request.getParameter("hotelid");
+        hotelid = StringEscapeUtils.escapeHtml4(hotelid);
+        String format = request.getParameter("format");
+        boolean csv = "csv".equals(format);
+
+        String filename = "reviews" + (hotelid == null ? "" : "-" + hotelid) + (csv ? ".csv" : ".ndjson");
+        response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
+        response.setStatus(HttpServletResponse.SC_OK);
+        PrintWriter out = response.getWriter();
+
+        // write each review as soon as it is read so nothing is held in memory
+        Consumer<Review> writer;
+        if (csv) {
+            out.print("reviewid,hotelid,username,rating,title,text,submissionDate\r\n");
+            writer = review -> writeCsv(out, review);
+        } else {
+            JsonWriter jsonWriter = new JsonWriter(out);
+            jsonWriter.setLenient(true); // one top level object per line
+            writer = review -> writeJson(jsonWriter, out, review);
+        }
+
+        HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
+        long[] rows = new long[1];
+        boolean exported = true;
+        try {
+            exported = hotelDB.exportReviews(hotelid, review -> {
+                writer.accept(review);
+                if (++rows[0] % CHECK_ROWS == 0) checkClient(out);
+            });
+        } catch (UncheckedIOException e) {
+            // client went away, stop reading
+        }
+
+        // nothing sent yet, for example every export connection is busy, so say so instead of an empty file
+        if (!exported && rows[0] == 0 && !response.isCommitted()) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Export is unavailable right now, try again later");
+            return;
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a review as one line of json
+     * @param jsonWriter streaming json writer over out
+     * @param out response writer
+     * @param review review to write
+     */
+    private void writeJson(JsonWriter jsonWriter, PrintWriter out, Review review) {
+        try {
+            jsonWriter.beginObject();
+            jsonWriter.name("reviewid").value(review.getReviewid());
+            jsonWriter.name("hotelid").value(review.getHotelid());
+            jsonWriter.name("username").value(review.getUsername());
+            jsonWriter.name("rating").value(Integer.parseInt(review.getRating()));
+            jsonWriter.name("title").value(review.getTitle());
+            jsonWriter.name("text").value(review.getText());
+            jsonWriter.name("submissionDate").value(review.getSubmissionDate());
+            jsonWriter.endObject();
+            out.print('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a review as one csv row
+     * @param out response writer
+     * @param review review to write
+     */
+    private void writeCsv(PrintWriter out, Review review) {
+        out.print(csvField(review.getReviewid()) + "," + csvField(review.getHotelid()) + ","
+                + csvField(review.getUsername()) + "," + csvField(review.getRating()) + ","
+                + csvField(review.getTitle()) + "," + csvField(review.getText()) + ","
+                + csvField(review.getSubmissionDate()) + "\r\n");
+    }
+
+    /**
+     * Quotes a csv field if it holds a comma, quote or line break
+     * @param value field value, may be null
+     * @return csv field
+     */
+    private String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * Stops the export if the client has disconnected, PrintWriter swallows write errors
+     * @param out response writer
+     */
+    private void checkClient(PrintWriter out) {
+        if (out.checkError()) {
+            throw new UncheckedIOException(new IOException("Client closed the export"));
+        }
+    }
+}
@@ -2,6 +2,8 @@ package server;
 
 import com.google.gson.JsonObject;
 import hotelapp.HotelDB;
+import hotelapp.MaintenanceScheduler;
+import hotelapp.UserProfile;
 import org.apache.commons.text.StringEscapeUtils;
 
 import javax.servlet.ServletException;
@@ -12,9 +14,14 @@ import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.time.LocalDateTime;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class FavHelperServlet extends HttpServlet {
 
+    private final int CLEAR_WAIT_SECONDS = 2;
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -26,6 +33,7 @@ public class FavHelperServlet extends HttpServlet {
         // grab session data
         HttpSession session = request.getSession();
         String username = (String) session.getAttribute("username");
+        UserProfile profile = (UserProfile) session.getAttribute("profile");
 
         // grab and clean parameters
         String hotelid = request.getParameter("hotelid");
@@ -38,21 +46,40 @@ public class FavHelperServlet extends HttpServlet {
         // clear favorites and redirect back to /favorite
         HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
         if (clear != null && clear.equals("true")) {
-            hotelDB.clearUserFavorites(username);
-            response.sendRedirect("/favorites");
+            // favorites are deleted in small batches, wait briefly so the page is usually up to date,
+            // a clear that takes longer keeps running and the page says it is still in progress
+            MaintenanceScheduler maintenance = (MaintenanceScheduler) getServletContext().getAttribute("maintenance");
+            String redirect = "/favorites";
+            try {
+                if (maintenance.clearFavorites(username).get(CLEAR_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    if (profile != null) profile.clearFavorites();
+                } else {
+                    redirect = "/favorites?error=clearFailed";
+                }
+            } catch (ExecutionException e) {
+                System.out.println("Exception when clearing favorites: " + e.getCause());
+                redirect = "/favorites?error=clearFailed";
+            } catch (TimeoutException e) {
+                redirect = "/favorites?clear=pending";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                redirect = "/favorites?clear=pending";
+            }
+            response.sendRedirect(redirect);
             return;
         }
 
-        // update fav value and delete or add favorite hotel
+        // the database decides whether this adds or deletes the favorite, the session profile may be
+        // stale after a change from another session, so it only follows the result
         JsonObject favObj = new JsonObject();
-        boolean isFav = hotelDB.checkFavorite(username, hotelid);
-        if (isFav) {
-            hotelDB.deleteUserFavorite(username, hotelid);
-            favObj.addProperty("fav", false);
-        } else {
-            hotelDB.addUserFavorite(username, hotelid, eventDate.toString());
-            favObj.addProperty("fav", true);
+        Boolean isFav = hotelDB.toggleUserFavorite(username, hotelid, eventDate.toString());
+        if (isFav == null) {
+            isFav = profile != null ? profile.isFavorite(hotelid) : hotelDB.checkFavorite(username, hotelid);
+        } else if (profile != null) {
+            if (isFav) profile.addFavorite(hotelid);
+            else profile.removeFavorite(hotelid);
         }
+        favObj.addProperty("fav", isFav);
 
         out.println(favObj);
     }
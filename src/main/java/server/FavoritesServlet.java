@@ -2,9 +2,10 @@ package server;
 
 import hotelapp.FavEvent;
 import hotelapp.HotelDB;
+import hotelapp.UserProfile;
+import hotelapp.WeatherCache;
+import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,8 +13,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 public class FavoritesServlet extends HttpServlet {
@@ -24,7 +24,6 @@ public class FavoritesServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -33,20 +32,46 @@ public class FavoritesServlet extends HttpServlet {
         // redirect if not logged in
         if (username == null) response.sendRedirect("/home");
 
-        // get links from database and add to a list
-        HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
-        List<FavEvent> favEvents = hotelDB.getFavEvents(username);
+        // grab and clean parameters
+        String error = request.getParameter("error");
+        error = StringEscapeUtils.escapeHtml4(error);
+        String clear = request.getParameter("clear");
+        clear = StringEscapeUtils.escapeHtml4(clear);
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
-        VelocityContext context = new VelocityContext();
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
+        LazyContext context = new LazyContext();
 
-        Template template = ve.getTemplate("static/favorites.html");
+        Template template = templates.getTemplate("static/favorites.html");
         context.put("username", username);
-        context.put("favEvents", favEvents);
+        context.put("error", error);
+        context.put("clear", clear);
+
+        // favorites are read from the database once the page header has been sent
+        HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
+        UserProfile profile = (UserProfile) session.getAttribute("profile");
+        WeatherCache weatherCache = (WeatherCache) getServletContext().getAttribute("weatherCache");
+        context.putLazy("favEvents", () -> {
+            List<FavEvent> favEvents = hotelDB.getFavEvents(username);
+
+            // the full list was just read, so bring the session profile up to date with it
+            if (profile != null) {
+                List<Integer> favoriteIds = new ArrayList<>();
+                for (FavEvent favEvent : favEvents) {
+                    favoriteIds.add(Integer.parseInt(favEvent.getHotelid()));
+                }
+                profile.setFavorites(favoriteIds);
+            }
+
+            // the user is likely to open some of these next, warm their weather with one upstream call
+            List<String[]> locations = new ArrayList<>();
+            for (FavEvent favEvent : favEvents) {
+                locations.add(hotelDB.getLatLong(favEvent.getHotelid()));
+            }
+            weatherCache.prefetch(locations);
+            return favEvents;
+        });
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 }
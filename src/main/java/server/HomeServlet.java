@@ -1,10 +1,9 @@
 package server;
 
-import hotelapp.HotelDB;
+import hotelapp.AsyncHotelDB;
+import hotelapp.UserProfile;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,9 +11,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class HomeServlet extends HttpServlet {
 
@@ -24,7 +23,6 @@ public class HomeServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -34,28 +32,31 @@ public class HomeServlet extends HttpServlet {
         String hotelSearch = request.getParameter("hotelSearch");
         hotelSearch = StringEscapeUtils.escapeHtml4(hotelSearch);
         if (hotelSearch == null) hotelSearch = "";
-
-        // perform the hotel search if user is logged in
-        List<String> matchedHotels = null;
-        String lastLogin = null;
-        if (username != null) {
-            HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
-            matchedHotels = hotelDB.findHotelNames(hotelSearch);
-            lastLogin = hotelDB.getLastLogin(username);
-        }
+        String error = request.getParameter("error");
+        error = StringEscapeUtils.escapeHtml4(error);
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
-        VelocityContext context = new VelocityContext();
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
+        LazyContext context = new LazyContext();
 
-        Template template = ve.getTemplate("static/home.html");
+        Template template = templates.getTemplate("static/home.html");
         context.put("username", username);
         context.put("hotelSearch", hotelSearch);
-        context.put("matchedHotels", matchedHotels);
-        context.put("lastLogin", lastLogin);
+        context.put("error", error);
+
+        // start the hotel search if user is logged in, the page header goes out while it runs
+        if (username != null) {
+            // last login comes from the session profile, both lookups run side by side without one
+            AsyncHotelDB asyncHotelDB = (AsyncHotelDB) getServletContext().getAttribute("asyncHotelDB");
+            UserProfile profile = (UserProfile) session.getAttribute("profile");
+            CompletableFuture<List<String>> hotelsFuture = asyncHotelDB.findHotelNames(hotelSearch);
+            CompletableFuture<String> lastLoginFuture = profile != null
+                    ? CompletableFuture.completedFuture(profile.getLastLogin())
+                    : asyncHotelDB.getLastLogin(username);
+            context.putLazy("matchedHotels", () -> AsyncHotelDB.join(hotelsFuture, new ArrayList<>()));
+            context.putLazy("lastLogin", () -> AsyncHotelDB.join(lastLoginFuture, null));
+        }
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 }
@@ -1,28 +1,93 @@
 package server;
 
 import hotelapp.ArgParser;
+import hotelapp.AsyncHotelDB;
 import hotelapp.HotelDB;
 import hotelapp.HotelParser;
+import hotelapp.MaintenanceScheduler;
 import hotelapp.ReviewParser;
-import org.apache.velocity.app.VelocityEngine;
+import hotelapp.WeatherCache;
+import hotelapp.WeatherFetcher;
+import hotelapp.WriteBehindBuffer;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerList;
-import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 public class HotelServer {
 
-    public static final int PORT = 8080;
+    public static final int PORT = 8080; // default port, see server.properties
+    public static final int METRICS_PORT = 8081; // default port for /metrics, only bound on localhost
+    public static final String WEB_CONNECTOR = "web";
+    public static final String METRICS_CONNECTOR = "metrics";
+    public static final String SERVER_CONFIG = "server.properties"; // web server settings
+    public static final int DB_THREADS = 8;           // threads for async database lookups
+    public static final int DB_QUEUE_SIZE = 200;      // lookups waiting for a database thread
+    public static final long DB_TIMEOUT_MILLIS = 5000; // timeout for a single async lookup
+    public static final int WRITE_BEHIND_CAPACITY = 10000; // buffered history and login writes
+    public static final int WRITE_BEHIND_BATCH = 500;      // buffered writes that trigger a flush
+    public static final long WRITE_BEHIND_FLUSH_MILLIS = 1000; // time between flushes
+    public static final int MAINTENANCE_BATCH = 500;        // rows per maintenance delete
+    public static final long MAINTENANCE_PAUSE_MILLIS = 50; // pause between maintenance deletes
+    public static final long RETENTION_INTERVAL_MINUTES = 60; // time between history retention runs
     private final HotelDB hotelDB;
+    private final AsyncHotelDB asyncHotelDB;
+    private final WriteBehindBuffer writeBehind;
+    private final MaintenanceScheduler maintenance;
+    private final WeatherCache weatherCache;
+    private final Properties config;
     private final Map<String, String> servlets;
+    private final Map<String, String> metricsServlets;
+    private final List<Runnable> backgroundTasks;
 
     /** Constructor for HotelServer */
     public HotelServer(HotelDB hotelDB) {
         this.hotelDB = hotelDB;
+        this.asyncHotelDB = new AsyncHotelDB(hotelDB, DB_THREADS, DB_QUEUE_SIZE, DB_TIMEOUT_MILLIS);
+        this.writeBehind = new WriteBehindBuffer(hotelDB, WRITE_BEHIND_CAPACITY, WRITE_BEHIND_BATCH, WRITE_BEHIND_FLUSH_MILLIS);
+        this.maintenance = new MaintenanceScheduler(hotelDB, MAINTENANCE_BATCH, MAINTENANCE_PAUSE_MILLIS);
+        this.config = loadConfig(SERVER_CONFIG);
+        WeatherFetcher weatherFetcher = new WeatherFetcher(
+                config.getProperty("weather_base_url", "https://api.open-meteo.com/v1/forecast"),
+                Long.parseLong(config.getProperty("weather_connect_timeout_ms", "3000")),
+                Long.parseLong(config.getProperty("weather_request_timeout_ms", "5000")),
+                Integer.parseInt(config.getProperty("weather_retries", "2")),
+                Long.parseLong(config.getProperty("weather_backoff_ms", "200")));
+        this.weatherCache = new WeatherCache(weatherFetcher,
+                Long.parseLong(config.getProperty("weather_ttl_seconds", "300")) * 1000,
+                Long.parseLong(config.getProperty("weather_stale_seconds", "600")) * 1000,
+                Long.parseLong(config.getProperty("weather_timeout_ms", "5000")));
         this.servlets = new HashMap<>();
+        this.metricsServlets = new HashMap<>();
+        this.backgroundTasks = new ArrayList<>();
+    }
+
+    /**
+     * Loads the web server config file, settings missing from it keep their defaults
+     * @param configPath path to server properties file
+     * @return properties object
+     */
+    private Properties loadConfig(String configPath) {
+        Properties config = new Properties();
+        try (FileReader f = new FileReader(configPath)) {
+            config.load(f);
+        } catch (IOException e) {
+            System.out.println("IOException when loading server config file, using defaults: " + e);
+        }
+        return config;
     }
 
     /**
@@ -34,40 +99,146 @@ public class HotelServer {
         servlets.put(path, className);
     }
 
+    /**
+     * Adds path and class name pair to the servlets served only on the metrics connector,
+     * which listens on localhost so operators can reach it and site visitors can not
+     * @param path request's path
+     * @param className class name for path
+     */
+    public void addMetricsServletMapping(String path, String className) {
+        metricsServlets.put(path, className);
+    }
+
+    /**
+     * Adds a task to run in the background once the server is started, tasks run
+     * one after another in the order they were added
+     * @param task task to run, for example a bulk load
+     */
+    public void addBackgroundTask(Runnable task) {
+        backgroundTasks.add(task);
+    }
+
+    /**
+     * Creates the jetty server with its thread pool and connectors set up from the server config.
+     * The web connector speaks HTTP/1.1 and, unless turned off, cleartext HTTP/2 so a page's ajax
+     * calls can share one connection. A second, small connector serves metrics on localhost only,
+     * a reverse proxy on the same host makes every site request look local, so the address of a
+     * request on the web connector can not tell operators apart from visitors
+     * @return server, not started
+     */
+    private Server createServer() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(
+                Integer.parseInt(config.getProperty("max_threads", "200")),
+                Integer.parseInt(config.getProperty("min_threads", "8")),
+                Integer.parseInt(config.getProperty("thread_idle_timeout_ms", "60000")));
+        threadPool.setName("jetty");
+        Server server = new Server(threadPool);
+
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setSendServerVersion(false);
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+
+        // -1 lets jetty pick acceptor and selector counts from the number of cores
+        int acceptors = Integer.parseInt(config.getProperty("acceptors", "-1"));
+        int selectors = Integer.parseInt(config.getProperty("selectors", "-1"));
+        ServerConnector connector;
+        if (Boolean.parseBoolean(config.getProperty("http2_cleartext", "true"))) {
+            HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+            h2c.setMaxConcurrentStreams(Integer.parseInt(config.getProperty("http2_max_streams", "128")));
+            connector = new ServerConnector(server, acceptors, selectors, http1, h2c);
+        } else {
+            connector = new ServerConnector(server, acceptors, selectors, http1);
+        }
+        connector.setPort(Integer.parseInt(config.getProperty("port", String.valueOf(PORT))));
+        connector.setIdleTimeout(Long.parseLong(config.getProperty("idle_timeout_ms", "30000")));
+        connector.setAcceptQueueSize(Integer.parseInt(config.getProperty("accept_queue_size", "128")));
+        connector.setName(WEB_CONNECTOR);
+        server.addConnector(connector);
+
+        ServerConnector metricsConnector = new ServerConnector(server, 1, 1, new HttpConnectionFactory(httpConfig));
+        metricsConnector.setHost(config.getProperty("metrics_host", "127.0.0.1"));
+        metricsConnector.setPort(Integer.parseInt(config.getProperty("metrics_port", String.valueOf(METRICS_PORT))));
+        metricsConnector.setName(METRICS_CONNECTOR);
+        server.addConnector(metricsConnector);
+        return server;
+    }
+
     /**
      * Starts the jetty server
      * @throws Exception if access failed
      */
     public void start() throws Exception {
         // jetty server
-        Server server = new Server(PORT);
+        Server server = createServer();
 
         // ********************** set up server handler for servlets **********************
         ServletContextHandler serverHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        serverHandler.setVirtualHosts(new String[] { "@" + WEB_CONNECTOR });
 
-        // initialize Velocity
-        VelocityEngine velocity = new VelocityEngine();
-        velocity.init();
+        // load and parse every page template once, dev mode picks up edits
+        TemplateRegistry templates = new TemplateRegistry("static",
+                Boolean.parseBoolean(config.getProperty("templates_dev_mode", "false")),
+                Long.parseLong(config.getProperty("templates_check_seconds", "2")));
 
-        // map end points to added pairs in servlets map
+        // map end points to added pairs in servlets map, servlets may go async while waiting on remote calls
         for (String path : servlets.keySet()) {
-            serverHandler.addServlet(servlets.get(path), path);
+            serverHandler.addServlet(servlets.get(path), path).setAsyncSupported(true);
         }
 
         serverHandler.setAttribute("hotelDB", hotelDB);
-        serverHandler.setAttribute("templateEngine", velocity);
+        serverHandler.setAttribute("asyncHotelDB", asyncHotelDB);
+        serverHandler.setAttribute("writeBehind", writeBehind);
+        serverHandler.setAttribute("maintenance", maintenance);
+        serverHandler.setAttribute("weatherCache", weatherCache);
+        serverHandler.setAttribute("templates", templates);
 
-        // ********************** set up resource handler for js **********************
-        ResourceHandler resourceHandler = new ResourceHandler();
-        resourceHandler.setDirectoriesListed(true);
-        resourceHandler.setResourceBase("static");
+        // ********************** set up metrics handler, reachable only on the metrics connector **********************
+        ServletContextHandler metricsHandler = new ServletContextHandler();
+        metricsHandler.setVirtualHosts(new String[] { "@" + METRICS_CONNECTOR });
+        for (String path : metricsServlets.keySet()) {
+            metricsHandler.addServlet(metricsServlets.get(path), path);
+        }
+        metricsHandler.setAttribute("hotelDB", hotelDB);
+        metricsHandler.setAttribute("writeBehind", writeBehind);
+        metricsHandler.setAttribute("maintenance", maintenance);
+        metricsHandler.setAttribute("weatherCache", weatherCache);
+
+        // compress pages and json, flushes push out what is compressed so far so early flushes still work
+        int gzipMinBytes = Integer.parseInt(config.getProperty("gzip_min_bytes", "512"));
+        GzipHandler gzipHandler = new GzipHandler();
+        gzipHandler.setMinGzipSize(gzipMinBytes);
+        gzipHandler.setIncludedMethods("GET", "POST");
+        gzipHandler.setIncludedMimeTypes("text/html", "application/json", "text/csv", "application/x-ndjson");
+        gzipHandler.setSyncFlush(true);
+        gzipHandler.setHandler(serverHandler);
+
+        // ********************** set up static asset handler for css and js **********************
+        // files are held in memory, with gzip copies made once here for clients that accept them
+        StaticAssets assets = new StaticAssets("static", gzipMinBytes,
+                config.getProperty("static_cache_control", "public, max-age=300"));
+        serverHandler.setAttribute("assets", assets);
 
         HandlerList handlers = new HandlerList();
-        handlers.setHandlers(new Handler[] { resourceHandler, serverHandler });
+        handlers.setHandlers(new Handler[] { metricsHandler, assets, gzipHandler });
         server.setHandler(handlers);
 
+        // flush buffered writes if the server is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(writeBehind::close));
+
         server.start();
+        maintenance.start(RETENTION_INTERVAL_MINUTES);
+        if (!backgroundTasks.isEmpty()) {
+            Thread ingest = new Thread(() -> backgroundTasks.forEach(Runnable::run), "ingest");
+            ingest.start();
+        }
+        long weatherRefreshSeconds = Long.parseLong(config.getProperty("weather_refresh_seconds", "60"));
+        if (weatherRefreshSeconds > 0) {
+            weatherCache.startRefresh(weatherRefreshSeconds * 1000);
+        }
         server.join();
+        asyncHotelDB.shutdown();
+        maintenance.shutdown();
+        weatherCache.shutdown();
     }
 
     public static void main(String[] args) {
@@ -92,23 +263,26 @@ public class HotelServer {
         hotelDB.createTable("travel_users");
         hotelDB.createTable("travel_hotels");
         hotelDB.createTable("travel_reviews");
+        hotelDB.createTable("travel_review_text");
         hotelDB.createTable("travel_history");
+        hotelDB.createTable("travel_history_rollup");
         hotelDB.createTable("travel_favorites");
+        hotelDB.migrateSchema();
 
-        // load hotel data if specified
-        if (argParser.getArgValue("-hotels") != null) {
-            HotelParser hotelParser = new HotelParser(hotelDB);
-            hotelParser.addHotels(hotelPath);
-        }
-
-        // load review data if specified
-        if (argParser.getArgValue("-reviews") != null) {
-            ReviewParser reviewParser = new ReviewParser(hotelDB, threads);
-            reviewParser.addReviews(reviewsPath);
-        }
+        // keep hotel rows in memory, HotelParser refreshes this after a reload
+        hotelDB.refreshCatalog();
 
         // create and set up jetty server
         HotelServer hotelServer = new HotelServer(hotelDB);
+
+        // load hotel and review data if specified, this runs once the server is up so pages are
+        // served during the load and the workload gate slows ingest down when they get slow
+        if (hotelPath != null) {
+            hotelServer.addBackgroundTask(() -> new HotelParser(hotelDB).addHotels(hotelPath));
+        }
+        if (reviewsPath != null) {
+            hotelServer.addBackgroundTask(() -> new ReviewParser(hotelDB, threads).addReviews(reviewsPath));
+        }
         hotelServer.addServletMapping("/registration", RegistrationServlet.class.getName());
         hotelServer.addServletMapping("/login", LoginServlet.class.getName());
         hotelServer.addServletMapping("/home", HomeServlet.class.getName());
@@ -121,6 +295,8 @@ public class HotelServer {
         hotelServer.addServletMapping("/fav-helper", FavHelperServlet.class.getName());
         hotelServer.addServletMapping("/weather", WeatherServlet.class.getName());
         hotelServer.addServletMapping("/review-helper", ReviewHelperServlet.class.getName());
+        hotelServer.addMetricsServletMapping("/metrics", MetricsServlet.class.getName());
+        hotelServer.addServletMapping("/export", ExportServlet.class.getName());
 
         // start jetty server
         try {
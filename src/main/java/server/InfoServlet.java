@@ -1,12 +1,12 @@
 package server;
 
+import hotelapp.AsyncHotelDB;
 import hotelapp.Hotel;
 import hotelapp.HotelDB;
-import hotelapp.Review;
+import hotelapp.HotelPage;
+import hotelapp.UserProfile;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,9 +14,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class InfoServlet extends HttpServlet {
 
@@ -28,7 +27,6 @@ public class InfoServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -48,45 +46,98 @@ public class InfoServlet extends HttpServlet {
         String error = request.getParameter("error");
         error = StringEscapeUtils.escapeHtml4(error);
 
-        // grab hotel data for template
+        // the hotel itself is needed for the page header, it comes from the catalog
         HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
         Hotel hotel = hotelDB.getHotelByName(hotelName);
-
-        // figure out the page count
-        int reviewCount = hotelDB.getReviewCount(hotel.getHotelid());
-        int pageCount = reviewCount % LIMIT == 0 ? reviewCount / LIMIT : reviewCount / LIMIT + 1;
-        if (pageCount == 0) pageCount = 1;
-
-        // now set the limit and offset
-        int offset = page == null ? 1 : Integer.parseInt(page);
-        if (offset > pageCount)
-            offset = pageCount;
-        else if (offset <= 0)
-            offset = 1;
-
-        // set favorite if hotel is favorited
-        if (hotelDB.checkFavorite(username, hotel.getHotelid())) hotel.setFavorite();
-        String avgRating = hotelDB.getAvgRating(hotelName);
-        List<Review> reviewList = hotelDB.getHotelReviews(hotelName, LIMIT, (offset - 1) * LIMIT);
+        if (hotel == null) {
+            response.sendRedirect("/home");
+            return;
+        }
+
+        // with a session profile everything on the page but the reviews is known up front,
+        // so a repeat view is answered with a 304 until the hotel's reviews change
+        UserProfile profile = (UserProfile) session.getAttribute("profile");
+        int requestedPage = page == null ? 1 : Integer.parseInt(page);
+        if (profile != null) {
+            long version = hotelDB.getReviewCache().version(hotel.getHotelid());
+            String etag = infoTag(hotel, version, requestedPage, username, hotelSearch, error, profile);
+            if (ETags.matches(request, etag)) {
+                ETags.notModified(request, response, etag, "private, no-cache");
+                return;
+            }
+        }
+
+        // start loading aggregates and the requested page of reviews, the header goes out while
+        // they load, review text is not shown here so it is left for the review helper to load
+        AsyncHotelDB asyncHotelDB = (AsyncHotelDB) getServletContext().getAttribute("asyncHotelDB");
+        CompletableFuture<HotelPage> pageFuture = asyncHotelDB
+                .getHotelPage(hotelName, username, requestedPage, LIMIT, false, profile == null)
+                .thenApply(hotelPage -> {
+                    // the favorite flag comes from the session profile when there is one
+                    if (hotelPage == null || profile == null) return hotelPage;
+                    return hotelPage.withFavorite(profile.isFavorite(hotel.getHotelid()));
+                });
+        HotelPage emptyPage = new HotelPage(hotel, null, 0, false, requestedPage, 0, new ArrayList<>());
+
+        // a tagged page waits for its reviews before the header goes out, so the tag carries the
+        // version they were read under. The empty fallback page and a page that may have come from
+        // a lagging replica are never tagged, the browser would otherwise keep revalidating them
+        if (profile != null) {
+            HotelPage loaded = AsyncHotelDB.join(pageFuture, null);
+            if (loaded != null && loaded.getVersion() >= 0) {
+                ETags.tag(response, infoTag(hotel, loaded.getVersion(), requestedPage, username,
+                        hotelSearch, error, profile), "private, no-cache");
+            } else {
+                response.setHeader("Cache-Control", "no-store");
+            }
+        }
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
-        VelocityContext context = new VelocityContext();
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
+        LazyContext context = new LazyContext();
 
-        Template template = ve.getTemplate("static/info.html");
+        Template template = templates.getTemplate("static/info.html");
         context.put("username", username);
         context.put("hotelSearch", hotelSearch);
         context.put("hotelName", hotelName);
         context.put("hotel", hotel);
-        context.put("avgRating", avgRating);
-        context.put("reviewList", reviewList);
-        context.put("reviewCount", reviewCount);
-        context.put("pageCount", pageCount);
-        context.put("offset", offset);
+        context.putLazy("favorite", () -> join(pageFuture, emptyPage).isFavorite());
+        context.putLazy("avgRating", () -> join(pageFuture, emptyPage).getAvgRating());
+        context.putLazy("reviewList", () -> join(pageFuture, emptyPage).getReviews());
+        context.putLazy("reviewCount", () -> join(pageFuture, emptyPage).getReviewCount());
+        context.putLazy("pageCount", () -> join(pageFuture, emptyPage).getPageCount());
+        context.putLazy("offset", () -> join(pageFuture, emptyPage).getPage());
         context.put("error", error);
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
+    }
+
+    /**
+     * Builds the tag for an info page, everything on it but the reviews comes from the request
+     * and the session profile
+     * @param hotel hotel
+     * @param version review cache version of the hotel's reviews
+     * @param requestedPage requested page of reviews
+     * @param username username
+     * @param hotelSearch search the user came from
+     * @param error error shown on the page
+     * @param profile session profile
+     * @return entity tag
+     */
+    private static String infoTag(Hotel hotel, long version, int requestedPage, String username,
+                                  String hotelSearch, String error, UserProfile profile) {
+        return ETags.of(hotel.getHotelid(), version, requestedPage, username, hotelSearch,
+                error, profile.isFavorite(hotel.getHotelid()));
+    }
+
+    /**
+     * Waits for the hotel page
+     * @param pageFuture page being loaded
+     * @param emptyPage page to show if loading failed
+     * @return hotel page
+     */
+    private static HotelPage join(CompletableFuture<HotelPage> pageFuture, HotelPage emptyPage) {
+        HotelPage hotelPage = AsyncHotelDB.join(pageFuture, emptyPage);
+        return hotelPage == null ? emptyPage : hotelPage;
     }
 }
@@ -0,0 +1,41 @@
+package server;
+
+import org.apache.velocity.VelocityContext;
+
+import java.util.function.Supplier;
+
+/**
+ * Velocity context whose values may be computed the first time the template
+ * reads them. Together with PageRenderer this lets a page send its header
+ * before the database backed parts further down have been looked up.
+ */
+public class LazyContext extends VelocityContext {
+
+    /** A value that has not been computed yet */
+    private static class Lazy {
+        private final Supplier<?> supplier;
+
+        private Lazy(Supplier<?> supplier) {
+            this.supplier = supplier;
+        }
+    }
+
+    /**
+     * Adds a value that is computed when the template first reads it
+     * @param key name used in the template
+     * @param supplier computes the value, called at most once
+     */
+    public void putLazy(String key, Supplier<?> supplier) {
+        put(key, new Lazy(supplier));
+    }
+
+    @Override
+    public Object internalGet(String key) {
+        Object value = super.internalGet(key);
+        if (value instanceof Lazy) {
+            value = ((Lazy) value).supplier.get();
+            super.internalPut(key, value);
+        }
+        return value;
+    }
+}
@@ -2,6 +2,10 @@ package server;
 
 import hotelapp.Hotel;
 import hotelapp.HotelDB;
+import hotelapp.IdGenerator;
+import hotelapp.LinkClick;
+import hotelapp.MaintenanceScheduler;
+import hotelapp.WriteBehindBuffer;
 import org.apache.commons.text.StringEscapeUtils;
 
 import javax.servlet.ServletException;
@@ -11,7 +15,6 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 public class LinkHelperServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -29,23 +32,28 @@ public class LinkHelperServlet extends HttpServlet {
         String clear = request.getParameter("clear");
         clear = StringEscapeUtils.escapeHtml4(clear);
 
-        // clear history and redirect back to /history
+        // clear history and redirect back to /history, raw events are deleted in the background
         HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
         if (clear != null && clear.equals("true")) {
+            // clicks still buffered would otherwise be written back after the clear
+            WriteBehindBuffer writeBehind = (WriteBehindBuffer) getServletContext().getAttribute("writeBehind");
+            writeBehind.discardLinkEvents(username);
             hotelDB.clearUserHistory(username);
+            MaintenanceScheduler maintenance = (MaintenanceScheduler) getServletContext().getAttribute("maintenance");
+            maintenance.clearHistory(username);
             response.sendRedirect("/history");
             return;
         }
 
-        // generate event UUID and date time
-        UUID eventUUID = UUID.randomUUID();
-        String eventid = eventUUID.toString().replaceAll("-", "");
+        // generate time ordered event id and date time
+        String eventid = IdGenerator.newId();
         LocalDateTime eventDate = LocalDateTime.now();
 
-        // add link to database
+        // buffer the link event so the redirect does not wait on the insert
         Hotel hotel = hotelDB.getHotelById(hotelid);
         String expediaUrl = hotel.generateExpediaUrl();
-        hotelDB.addLinkEvent(eventid, expediaUrl, username, Integer.parseInt(hotelid), eventDate.toString());
+        WriteBehindBuffer writeBehind = (WriteBehindBuffer) getServletContext().getAttribute("writeBehind");
+        writeBehind.addLinkEvent(new LinkClick(eventid, expediaUrl, username, Integer.parseInt(hotelid), eventDate.toString()));
 
         // redirect to expedia page
         response.sendRedirect(expediaUrl);
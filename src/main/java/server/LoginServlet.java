@@ -1,10 +1,11 @@
 package server;
 
 import hotelapp.HotelDB;
+import hotelapp.UserProfile;
+import hotelapp.WriteBehindBuffer;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,8 +13,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.time.LocalDateTime;
 
 public class LoginServlet extends HttpServlet {
@@ -24,7 +23,6 @@ public class LoginServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -34,8 +32,8 @@ public class LoginServlet extends HttpServlet {
         String status = request.getParameter("status");
         status = StringEscapeUtils.escapeHtml4(status);
         if (status != null && status.equals("end")) {
-            HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
-            hotelDB.setLoginTime((String) session.getAttribute("loginTime"), username);
+            WriteBehindBuffer writeBehind = (WriteBehindBuffer) getServletContext().getAttribute("writeBehind");
+            writeBehind.setLoginTime((String) session.getAttribute("loginTime"), username);
             session.invalidate();
             response.sendRedirect("/home");
             return;
@@ -49,15 +47,13 @@ public class LoginServlet extends HttpServlet {
         auth = StringEscapeUtils.escapeHtml4(auth);
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
         VelocityContext context = new VelocityContext();
 
-        Template template = ve.getTemplate("static/login.html");
+        Template template = templates.getTemplate("static/login.html");
         context.put("auth", auth);
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 
     @Override
@@ -81,6 +77,13 @@ public class LoginServlet extends HttpServlet {
             HttpSession session = request.getSession();
             session.setAttribute("username", username);
             session.setAttribute("loginTime", loginTime.toString());
+
+            // keep last login and favorites in the session so pages do not have to query them,
+            // a login time from a recent logout may still be buffered, so it is written first
+            WriteBehindBuffer writeBehind = (WriteBehindBuffer) getServletContext().getAttribute("writeBehind");
+            writeBehind.flushLoginTime(username);
+            UserProfile profile = new UserProfile(hotelDB.getLastLogin(username), hotelDB.getFavoriteIds(username));
+            session.setAttribute("profile", profile);
             response.sendRedirect("/home");
         } else {
             response.sendRedirect("/login?auth=failed");
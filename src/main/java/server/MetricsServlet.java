@@ -0,0 +1,141 @@
+package server;
+
+import com.google.gson.JsonObject;
+import hotelapp.HotelDB;
+import hotelapp.LatencyHistogram;
+import hotelapp.MaintenanceScheduler;
+import hotelapp.QueryMetrics;
+import hotelapp.ReviewPageCache;
+import hotelapp.WeatherCache;
+import hotelapp.WorkloadGate;
+import hotelapp.WriteBehindBuffer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("application/json");
+        response.setStatus(HttpServletResponse.SC_OK);
+        PrintWriter out = response.getWriter();
+
+        // per statement latency, rows and errors
+        HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
+        QueryMetrics queryMetrics = hotelDB.getMetrics();
+        JsonObject queriesObj = new JsonObject();
+        for (Map.Entry<String, QueryMetrics.StatementStats> entry : queryMetrics.getStatementStats().entrySet()) {
+            QueryMetrics.StatementStats stats = entry.getValue();
+            JsonObject statementObj = latencyToJson(stats.getLatency());
+            statementObj.addProperty("rows", stats.getRows());
+            statementObj.addProperty("errors", stats.getErrors());
+            queriesObj.add(entry.getKey(), statementObj);
+        }
+
+        JsonObject connectionObj = latencyToJson(queryMetrics.getConnectionWait());
+        connectionObj.addProperty("errors", queryMetrics.getConnectionErrors());
+
+        // buffered history and login writes
+        WriteBehindBuffer writeBehind = (WriteBehindBuffer) getServletContext().getAttribute("writeBehind");
+        JsonObject writeBehindObj = new JsonObject();
+        writeBehindObj.addProperty("queueDepth", writeBehind.getQueueDepth());
+        writeBehindObj.addProperty("flushes", writeBehind.getFlushCount());
+        writeBehindObj.addProperty("flushedWrites", writeBehind.getFlushedWrites());
+        writeBehindObj.addProperty("directWrites", writeBehind.getDirectWrites());
+        writeBehindObj.addProperty("failedFlushes", writeBehind.getFailedFlushes());
+        writeBehindObj.addProperty("droppedWrites", writeBehind.getDroppedWrites());
+        writeBehindObj.addProperty("lastFlushMs", writeBehind.getLastFlushMillis());
+        writeBehindObj.addProperty("maxFlushMs", writeBehind.getMaxFlushMillis());
+
+        // background deletes
+        MaintenanceScheduler maintenance = (MaintenanceScheduler) getServletContext().getAttribute("maintenance");
+        JsonObject maintenanceObj = new JsonObject();
+        maintenanceObj.addProperty("jobs", maintenance.getJobsRun());
+        maintenanceObj.addProperty("failedJobs", maintenance.getFailedJobs());
+        maintenanceObj.addProperty("batches", maintenance.getBatchesRun());
+        maintenanceObj.addProperty("rowsDeleted", maintenance.getRowsDeleted());
+        maintenanceObj.addProperty("lockWaits", maintenance.getLockWaits());
+        maintenanceObj.addProperty("lastBatchMs", maintenance.getLastBatchMillis());
+        maintenanceObj.addProperty("maxBatchMs", maintenance.getMaxBatchMillis());
+        maintenanceObj.addProperty("currentJob", maintenance.getCurrentJob());
+        maintenanceObj.addProperty("currentJobRows", maintenance.getCurrentJobRows());
+
+        // connection permits per kind of work and the ingest throttle
+        WorkloadGate gate = hotelDB.getGate();
+        JsonObject workloadsObj = new JsonObject();
+        for (WorkloadGate.Workload workload : WorkloadGate.Workload.values()) {
+            JsonObject workloadObj = new JsonObject();
+            workloadObj.addProperty("limit", gate.getLimit(workload));
+            workloadObj.addProperty("inUse", gate.getInUse(workload));
+            workloadObj.addProperty("waiting", gate.getWaiting(workload));
+            workloadsObj.add(workload.name().toLowerCase(), workloadObj);
+        }
+        workloadsObj.addProperty("interactiveP95Ms", gate.getLastInteractiveP95());
+        workloadsObj.addProperty("budgetMs", gate.getBudgetMillis());
+        workloadsObj.addProperty("ingestDelayMs", gate.getIngestDelayMillis());
+        workloadsObj.addProperty("throttledWindows", gate.getThrottledWindows());
+
+        // review page cache
+        ReviewPageCache reviewCache = hotelDB.getReviewCache();
+        long lookups = reviewCache.getHits() + reviewCache.getMisses();
+        JsonObject reviewCacheObj = new JsonObject();
+        reviewCacheObj.addProperty("hits", reviewCache.getHits());
+        reviewCacheObj.addProperty("misses", reviewCache.getMisses());
+        reviewCacheObj.addProperty("hitRatio", lookups == 0 ? 0 : (double) reviewCache.getHits() / lookups);
+        reviewCacheObj.addProperty("evictions", reviewCache.getEvictions());
+        reviewCacheObj.addProperty("invalidations", reviewCache.getInvalidations());
+        reviewCacheObj.addProperty("rejectedPuts", reviewCache.getRejectedPuts());
+        reviewCacheObj.addProperty("entries", reviewCache.getEntries());
+        reviewCacheObj.addProperty("bytes", reviewCache.getBytes());
+        reviewCacheObj.addProperty("maxBytes", reviewCache.getMaxBytes());
+
+        // weather cache and calls to open-meteo
+        WeatherCache weatherCache = (WeatherCache) getServletContext().getAttribute("weatherCache");
+        JsonObject weatherObj = new JsonObject();
+        weatherObj.addProperty("hits", weatherCache.getHits());
+        weatherObj.addProperty("staleHits", weatherCache.getStaleHits());
+        weatherObj.addProperty("misses", weatherCache.getMisses());
+        weatherObj.addProperty("coalesced", weatherCache.getCoalesced());
+        weatherObj.addProperty("externalCalls", weatherCache.getFetches());
+        weatherObj.addProperty("externalRetries", weatherCache.getFetchRetries());
+        weatherObj.addProperty("externalErrors", weatherCache.getFetchErrors());
+        weatherObj.addProperty("batchedSpots", weatherCache.getBatchedSpots());
+        weatherObj.addProperty("refreshed", weatherCache.getRefreshed());
+        weatherObj.addProperty("entries", weatherCache.getEntries());
+
+        JsonObject metricsObj = new JsonObject();
+        metricsObj.add("queries", queriesObj);
+        metricsObj.add("connections", connectionObj);
+        metricsObj.add("writeBehind", writeBehindObj);
+        metricsObj.add("maintenance", maintenanceObj);
+        metricsObj.add("workloads", workloadsObj);
+        metricsObj.addProperty("catalogHotels", hotelDB.getCatalogSize());
+        metricsObj.add("reviewCache", reviewCacheObj);
+        metricsObj.add("weather", weatherObj);
+        out.println(metricsObj);
+    }
+
+    /**
+     * Converts a latency histogram to a json object
+     * @param histogram latency histogram
+     * @return json object with count, mean, percentiles and max in milliseconds
+     */
+    private JsonObject latencyToJson(LatencyHistogram histogram) {
+        JsonObject latencyObj = new JsonObject();
+        latencyObj.addProperty("count", histogram.getCount());
+        latencyObj.addProperty("meanMs", histogram.getMeanMillis());
+        latencyObj.addProperty("p50Ms", histogram.getPercentileMillis(0.50));
+        latencyObj.addProperty("p95Ms", histogram.getPercentileMillis(0.95));
+        latencyObj.addProperty("p99Ms", histogram.getPercentileMillis(0.99));
+        latencyObj.addProperty("maxMs", histogram.getMaxMillis());
+        return latencyObj;
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Merges a template straight into the response writer instead of building the
+ * whole page in a string first. Templates call $!flusher.flush() once the
+ * head and navbar are written so the browser gets them while the rest of the
+ * page is still being worked out.
+ */
+public class PageRenderer {
+
+    /** Sends what has been rendered so far, called from templates */
+    public static class Flusher {
+        private final HttpServletResponse response;
+
+        private Flusher(HttpServletResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Flushes the response buffer to the client
+         * @return empty string so nothing is rendered in its place
+         */
+        public String flush() {
+            try {
+                response.flushBuffer();
+            } catch (IOException e) {
+                // client went away, the rest of the merge fails on the writer the same way
+                System.out.println(e);
+            }
+            return "";
+        }
+    }
+
+    /**
+     * Renders a page into the response. Once the page is flushed the status and
+     * headers are sent, so servlets must redirect before calling this
+     * @param request request being answered
+     * @param response response to write to
+     * @param template parsed template
+     * @param context template values, lazy values are computed as they are reached
+     * @throws IOException if the response writer can not be opened
+     */
+    public static void render(HttpServletRequest request, HttpServletResponse response, Template template,
+                              VelocityContext context) throws IOException {
+        PrintWriter out = response.getWriter();
+        context.put("flusher", new Flusher(response));
+        context.put("assets", request.getServletContext().getAttribute("assets"));
+        template.merge(context, out);
+        out.println();
+    }
+}
@@ -4,7 +4,6 @@ import hotelapp.HotelDB;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,8 +11,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 
 public class RegistrationServlet extends HttpServlet {
 
@@ -23,7 +20,6 @@ public class RegistrationServlet extends HttpServlet {
 
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab session data
         HttpSession session = request.getSession();
@@ -37,15 +33,13 @@ public class RegistrationServlet extends HttpServlet {
         error = StringEscapeUtils.escapeHtml4(error);
 
         // set up velocity template and its context
-        VelocityEngine ve = (VelocityEngine) request.getServletContext().getAttribute("templateEngine");
+        TemplateRegistry templates = (TemplateRegistry) request.getServletContext().getAttribute("templates");
         VelocityContext context = new VelocityContext();
 
-        Template template = ve.getTemplate("static/registration.html");
+        Template template = templates.getTemplate("static/registration.html");
         context.put("error", error);
 
-        StringWriter writer = new StringWriter();
-        template.merge(context, writer);
-        out.println(writer);
+        PageRenderer.render(request, response, template, context);
     }
 
     @Override
@@ -4,6 +4,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import hotelapp.Hotel;
 import hotelapp.HotelDB;
+import hotelapp.HotelPage;
 import hotelapp.Review;
 import org.apache.commons.text.StringEscapeUtils;
 
@@ -11,6 +12,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
@@ -32,23 +34,37 @@ public class ReviewHelperServlet extends HttpServlet {
         hotelid = StringEscapeUtils.escapeHtml4(hotelid);
         String page = StringEscapeUtils.escapeHtml4(request.getParameter("page"));
 
-        // grab hotel data for json object
+        // grab session data, the user's reads stick to the primary right after they write a review
+        HttpSession session = request.getSession();
+        String username = (String) session.getAttribute("username");
+
+        // grab the requested page of reviews for the json object
         HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
         Hotel hotel = hotelDB.getHotelById(hotelid);
+        if (hotel == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown hotel");
+            return;
+        }
+        int requestedPage = page == null ? 1 : Integer.parseInt(page);
 
-        // figure out the page count
-        int reviewCount = hotelDB.getReviewCount(hotel.getHotelid());
-        int pageCount = reviewCount % LIMIT == 0 ? reviewCount / LIMIT : reviewCount / LIMIT + 1;
-        if (pageCount == 0) pageCount = 1;
-
-        // now set the limit and offset
-        int offset = page == null ? 1 : Integer.parseInt(page);
-        if (offset > pageCount)
-            offset = pageCount;
-        else if (offset <= 0)
-            offset = 1;
+        // the page only changes when the hotel's reviews do, the browser revalidates every time
+        long version = hotelDB.getReviewCache().version(hotel.getHotelid());
+        String etag = ETags.of(hotel.getHotelid(), version, requestedPage);
+        if (ETags.matches(request, etag)) {
+            ETags.notModified(request, response, etag, "private, no-cache");
+            return;
+        }
 
-        List<Review> reviewList = hotelDB.getHotelReviews(hotel.getName(), LIMIT, (offset - 1) * LIMIT);
+        // the tag carries the version the reviews were read under, a failed read or one that may
+        // have come from a lagging replica is not tagged so the browser asks again next time
+        HotelPage hotelPage = hotelDB.getHotelPage(hotel.getName(), username, requestedPage, LIMIT, true, false);
+        List<Review> reviewList = hotelPage == null ? List.of() : hotelPage.getReviews();
+        if (hotelPage == null || hotelPage.getVersion() < 0) {
+            response.setHeader("Cache-Control", "no-store");
+        } else {
+            ETags.tag(response, ETags.of(hotel.getHotelid(), hotelPage.getVersion(), requestedPage),
+                    "private, no-cache");
+        }
 
         // add reviews to json object and then to array
         JsonArray reviewsArray = new JsonArray();
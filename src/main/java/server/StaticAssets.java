@@ -0,0 +1,197 @@
+package server;
+
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the css and js under static/ from memory. Files are read once at
+ * startup into direct buffers, along with a gzip copy when that is worth it.
+ * Each file is also served under a name holding a hash of its content, which
+ * never changes meaning and so can be cached by browsers for good. Templates
+ * link to those names through $assets.url("js/getReviews.js").
+ */
+public class StaticAssets extends AbstractHandler {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final Map<String, Asset> byPath;        // js/getReviews.js
+    private final Map<String, Asset> byFingerprint; // js/getReviews.1a2b3c4d5e.js
+    private final String cacheControl;
+
+    /** One file held in memory */
+    private static class Asset {
+        private final String fingerprintPath;
+        private final String etag;
+        private final String contentType;
+        private final ByteBuffer content;
+        private final ByteBuffer gzipContent; // null if compressing did not pay off
+
+        private Asset(String fingerprintPath, String etag, String contentType,
+                      ByteBuffer content, ByteBuffer gzipContent) {
+            this.fingerprintPath = fingerprintPath;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.content = content;
+            this.gzipContent = gzipContent;
+        }
+    }
+
+    /**
+     * Constructor for StaticAssets, loads every css and js file under dir
+     * @param dir static file directory
+     * @param gzipMinBytes files smaller than this are only kept uncompressed
+     * @param cacheControl Cache-Control for requests by the plain file name
+     */
+    public StaticAssets(String dir, int gzipMinBytes, String cacheControl) {
+        this.byPath = new HashMap<>();
+        this.byFingerprint = new HashMap<>();
+        this.cacheControl = cacheControl;
+
+        Path root = Paths.get(dir);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> path.toString().endsWith(".css") || path.toString().endsWith(".js"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("IOException when listing static files: " + e);
+            return;
+        }
+
+        MimeTypes mimeTypes = new MimeTypes();
+        for (Path file : files) {
+            String path = root.relativize(file).toString().replace('\\', '/');
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                String hash = hash(bytes);
+                byte[] gzip = bytes.length >= gzipMinBytes ? gzip(bytes) : null;
+                if (gzip != null && gzip.length >= bytes.length) gzip = null;
+
+                int dot = path.lastIndexOf('.');
+                Asset asset = new Asset(path.substring(0, dot) + "." + hash + path.substring(dot),
+                        "W/\"" + hash + "\"", mimeTypes.getMimeByExtension(path),
+                        direct(bytes), gzip == null ? null : direct(gzip));
+                byPath.put(path, asset);
+                byFingerprint.put(asset.fingerprintPath, asset);
+            } catch (IOException e) {
+                System.out.println("IOException when loading " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the url templates should link to for a static file
+     * @param path file path under the static directory, for example style.css
+     * @return fingerprinted url, or the plain url if the file was not loaded
+     */
+    public String url(String path) {
+        Asset asset = byPath.get(path);
+        return "/" + (asset == null ? path : asset.fingerprintPath);
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return;
+        }
+
+        String path = target.startsWith("/") ? target.substring(1) : target;
+        Asset asset = byFingerprint.get(path);
+        String policy = IMMUTABLE;
+        if (asset == null) {
+            asset = byPath.get(path);
+            policy = cacheControl;
+        }
+        if (asset == null) {
+            return; // not a static file, leave it to the servlets
+        }
+        baseRequest.setHandled(true);
+
+        response.setHeader("Vary", "Accept-Encoding");
+        if (ETags.notModified(request, response, asset.etag, policy)) {
+            return;
+        }
+
+        ByteBuffer content = asset.content;
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (asset.gzipContent != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            content = asset.gzipContent;
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentType(asset.contentType);
+        response.setContentLength(content.remaining());
+        if ("GET".equals(method)) {
+            // a duplicate shares the bytes but has its own position, so requests don't interfere
+            baseRequest.getResponse().getHttpOutput().sendContent(content.duplicate());
+        }
+    }
+
+    /**
+     * Copies bytes into a read only direct buffer
+     * @param bytes file content
+     * @return buffer positioned at the start of the content
+     */
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Compresses bytes at the highest gzip level
+     * @param bytes file content
+     * @return gzip compressed content
+     * @throws IOException never for an in memory stream
+     */
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+            { def.setLevel(Deflater.BEST_COMPRESSION); }
+        }) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Hashes file content for its fingerprinted name
+     * @param bytes file content
+     * @return first 10 hex characters of the SHA-256
+     */
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
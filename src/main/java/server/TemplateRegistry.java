@@ -0,0 +1,70 @@
+package server;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads and parses every page template once at startup and hands servlets the
+ * parsed templates. In dev mode templates are looked up through Velocity's
+ * loader cache instead, which re-reads a file once it changes on disk.
+ */
+public class TemplateRegistry {
+    private final VelocityEngine velocity;
+    private final boolean devMode;
+    private final Map<String, Template> templates;
+
+    /**
+     * Constructor for TemplateRegistry
+     * @param templateDir directory holding the templates, relative to the working directory
+     * @param devMode true to pick up template edits without a restart
+     * @param checkIntervalSeconds in dev mode, how often a template file is checked for changes
+     */
+    public TemplateRegistry(String templateDir, boolean devMode, long checkIntervalSeconds) {
+        this.devMode = devMode;
+        this.templates = new ConcurrentHashMap<>();
+
+        // parsed templates (including #parse'd ones) are kept by the file loader
+        Properties props = new Properties();
+        props.setProperty(RuntimeConstants.RESOURCE_LOADER, "file");
+        props.setProperty("file.resource.loader.path", ".");
+        props.setProperty("file.resource.loader.cache", "true");
+        props.setProperty("file.resource.loader.modificationCheckInterval",
+                devMode ? String.valueOf(checkIntervalSeconds) : "-1");
+        this.velocity = new VelocityEngine();
+        velocity.init(props);
+
+        File[] files = new File(templateDir).listFiles((dir, name) -> name.endsWith(".html"));
+        if (files != null) {
+            for (File file : files) {
+                String path = templateDir + "/" + file.getName();
+                templates.put(path, velocity.getTemplate(path));
+            }
+        }
+    }
+
+    /**
+     * Returns a parsed template
+     * @param path template path, for example static/home.html
+     * @return template
+     */
+    public Template getTemplate(String path) {
+        if (devMode) {
+            return velocity.getTemplate(path);
+        }
+        return templates.computeIfAbsent(path, velocity::getTemplate);
+    }
+
+    /**
+     * Returns the number of templates parsed at startup or since
+     * @return number of templates
+     */
+    public int size() {
+        return templates.size();
+    }
+}
@@ -2,17 +2,24 @@ package server;
 
 import com.google.gson.JsonObject;
 import hotelapp.HotelDB;
-import hotelapp.WeatherFetcher;
+import hotelapp.WeatherCache;
 import org.apache.commons.text.StringEscapeUtils;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WeatherServlet extends HttpServlet {
 
@@ -22,7 +29,6 @@ public class WeatherServlet extends HttpServlet {
 
         response.setContentType("application/json");
         response.setStatus(HttpServletResponse.SC_OK);
-        PrintWriter out = response.getWriter();
 
         // grab and clean parameters
         String hotelid = request.getParameter("hotelid");
@@ -32,9 +38,99 @@ public class WeatherServlet extends HttpServlet {
         HotelDB hotelDB = (HotelDB) getServletContext().getAttribute("hotelDB");
         String[] latlong = hotelDB.getLatLong(hotelid);
 
-        // fetch weather data for response
-        WeatherFetcher weatherFetcher = new WeatherFetcher();
-        JsonObject meteoObj = weatherFetcher.getWeather(latlong[0], latlong[1]);
+        // weather is shared by every hotel near the same spot and only refetched once it expires
+        WeatherCache weatherCache = (WeatherCache) getServletContext().getAttribute("weatherCache");
+        CompletableFuture<WeatherCache.Weather> future = weatherCache.getWeather(latlong[0], latlong[1]);
+        if (future.isDone()) {
+            // cached, answer right away
+            writeWeather(request, response, hotelid, weatherCache, future.join());
+            return;
+        }
+
+        // hand the thread back to jetty while open-meteo answers, whichever of
+        // the fetch and the timeout comes first writes the response
+        AsyncContext async = request.startAsync();
+        async.setTimeout(weatherCache.getFetchTimeoutMillis());
+        AtomicBoolean answered = new AtomicBoolean();
+        String id = hotelid;
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (answered.compareAndSet(false, true)) {
+                    finish(async, id, weatherCache, null);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                answered.set(true);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        future.whenComplete((weather, e) -> {
+            if (answered.compareAndSet(false, true)) {
+                finish(async, id, weatherCache, weather);
+            }
+        });
+    }
+
+    /**
+     * Writes the weather for an async request and completes it
+     * @param async async context of the request
+     * @param hotelid hotel id
+     * @param weatherCache weather cache
+     * @param weather weather, null to send the fallback
+     */
+    private void finish(AsyncContext async, String hotelid, WeatherCache weatherCache, WeatherCache.Weather weather) {
+        try {
+            writeWeather((HttpServletRequest) async.getRequest(), (HttpServletResponse) async.getResponse(),
+                    hotelid, weatherCache, weather);
+        } catch (IOException e) {
+            System.out.println("IOException when writing weather: " + e);
+        } finally {
+            async.complete();
+        }
+    }
+
+    /**
+     * Writes weather as JSON, or a fallback with the same fields if there is none
+     * @param request request, checked for If-None-Match
+     * @param response response
+     * @param hotelid hotel id
+     * @param weatherCache weather cache
+     * @param weather weather, may be null
+     * @throws IOException if the response can not be written
+     */
+    private void writeWeather(HttpServletRequest request, HttpServletResponse response, String hotelid,
+                              WeatherCache weatherCache, WeatherCache.Weather weather) throws IOException {
+        PrintWriter out = response.getWriter();
+        if (weather == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Cache-Control", "no-store");
+            JsonObject fallbackObj = new JsonObject();
+            fallbackObj.addProperty("time", "--");
+            fallbackObj.addProperty("temp", "--");
+            fallbackObj.addProperty("wind", "--");
+            fallbackObj.addProperty("desc", "Weather is unavailable right now");
+            out.println(fallbackObj);
+            return;
+        }
+
+        // the reading only changes when it is refetched, browsers may reuse it until then
+        long freshMillis = weatherCache.getTtlMillis() - (System.currentTimeMillis() - weather.getFetchedAt());
+        String etag = ETags.of(hotelid, weather.getFetchedAt());
+        if (ETags.notModified(request, response, etag, "public, max-age=" + Math.max(0, freshMillis / 1000))) {
+            return;
+        }
+
+        JsonObject meteoObj = weather.getCurrent();
         String temp = celsiusToFahrenheit(meteoObj.get("temperature").getAsString());
         String wind = meteoObj.get("windspeed").getAsString();
         String desc = describeWeatherCode(meteoObj.get("weathercode").getAsString());
@@ -43,7 +139,8 @@ public class WeatherServlet extends HttpServlet {
         DateTimeFormatter pretty = DateTimeFormatter.ofPattern("hh:mm:ss");
 
         JsonObject weatherObj = new JsonObject();
-        weatherObj.addProperty("time", pretty.format(LocalDateTime.now()));
+        weatherObj.addProperty("time", pretty.format(LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(weather.getFetchedAt()), ZoneId.systemDefault())));
         weatherObj.addProperty("temp", temp);
         weatherObj.addProperty("wind", wind);
         weatherObj.addProperty("desc", desc);